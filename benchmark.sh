@@ -0,0 +1,37 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+if [ "$#" -eq 0 ] || [ "$1" = "-h" ]; then
+  echo "Usage: ./benchmark.sh [--input=<file>] [--warmup=<runs>] [--runs=<runs>] [--timeout=<seconds>]"
+  echo "                      [--cpus=<taskset list>|--cpus=] [--json=<file>] [--prepare] <fork>|engine:<name> ..."
+  echo
+  echo "Times each calculate_average_<fork>.sh on ./measurements.txt and each in-process engine on --input"
+  echo "(default: ./measurements.txt) with the java on the PATH only: no hyperfine, jq, bc or SDKMAN."
+  echo "Defaults are 1 warm-up and 5 measured runs, a 300 s timeout per run and CPUs 0-7 if taskset is"
+  echo "installed. Prints min, median, p90, mean with its 95% confidence interval and stddev as a Markdown"
+  echo "table and writes them to benchmark-<timestamp>.json. Build first with ./mvnw clean package -Dquick."
+  echo
+  echo "Examples:"
+  echo "./benchmark.sh baseline thomaswue"
+  echo "./benchmark.sh --runs=10 --input=/data/measurements_10M.txt engine:sachinhejip engine:merykitty"
+  exit 1
+fi
+
+java --enable-preview --add-modules jdk.incubator.vector --enable-native-access=ALL-UNNAMED \
+  --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.BenchmarkRunner "$@" 2> >(grep -v "^WARNING: Using incubator modules" >&2)
@@ -0,0 +1,34 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+if [ "$#" -lt 2 ] || [ "$1" = "-h" ]; then
+  echo "Usage: ./benchmark_compare.sh [--history=<file>] [--alpha=<level>] <base commit> <commit>"
+  echo
+  echo "Compares the runs ./benchmark.sh recorded in benchmark-history.jsonl at two commits, per target,"
+  echo "dataset and JVM flags, and flags those significantly slower by a Mann-Whitney U test (default"
+  echo "alpha 0.05, which takes at least 4 runs at each commit). Uncommitted changes are recorded as"
+  echo "<commit>+dirty. Exits with 1 if anything regressed."
+  echo
+  echo "Examples:"
+  echo "./benchmark_compare.sh HEAD~1 HEAD"
+  echo "./benchmark_compare.sh HEAD HEAD+dirty"
+  exit 1
+fi
+
+java --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.BenchmarkHistory "$@"
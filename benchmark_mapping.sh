@@ -0,0 +1,80 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+if [ "$#" -gt 1 ] || [ "${1:-}" = "-h" ]; then
+  echo "Usage: ./benchmark_mapping.sh [measurements file]"
+  echo
+  echo "Times CalculateAverage_sachinhejip on the given file (default: ./measurements.txt) mapped with"
+  echo "FileChannel.map, with mmap and madvise through FFM and with MAP_POPULATE, each with and without"
+  echo "--prefetch. Warm runs follow a run that read the file in, cold runs start with the file evicted from"
+  echo "the page cache by PageCache. Outputs are checked to match, and each time is the median wall time of"
+  echo "\$RUNS runs (default 5). Build first with ./mvnw clean package -Dquick."
+  exit 1
+fi
+
+FILE=$(realpath "${1:-measurements.txt}")
+RUNS=${RUNS:-5}
+VARIANTS=("--mapping=channel" "--mapping=channel --prefetch" "--mapping=native" "--mapping=native --prefetch" "--mapping=populate")
+
+JAR="$(pwd)/target/average-1.0.0-SNAPSHOT.jar"
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+ln -s "$FILE" "$WORK_DIR/measurements.txt"
+
+run() {
+  (cd "$WORK_DIR" && java -Xmx2G --enable-preview --enable-native-access=ALL-UNNAMED --class-path "$JAR" dev.morling.onebrc.CalculateAverage_sachinhejip "$@")
+}
+
+evict() {
+  java --enable-preview --enable-native-access=ALL-UNNAMED --class-path "$JAR" dev.morling.onebrc.PageCache "$FILE" 2> /dev/null
+}
+
+# median_millis <warm|cold> <arguments>: prints the median wall time in ms of running with the given arguments
+median_millis() {
+  local cache=$1
+  shift
+  local times=()
+  for ((i = 0; i < RUNS; i++)); do
+    if [ "$cache" = "cold" ]; then
+      evict
+    fi
+    local start=$(date +%s%N)
+    run "$@" > /dev/null
+    times+=($((($(date +%s%N) - start) / 1000000)))
+  done
+  printf "%s\n" "${times[@]}" | sort -n | sed -n "$((RUNS / 2 + 1))p"
+}
+
+CACHES=(warm cold)
+
+EXPECTED=$(run --mapping=channel)
+printf "%-30s" "variant"
+printf "%10s" "${CACHES[@]/%/ ms}"
+echo
+for variant in "${VARIANTS[@]}"; do
+  if [ "$(run $variant)" != "$EXPECTED" ]; then
+    echo "FAIL $variant: the output differs from --mapping=channel"
+    exit 1
+  fi
+  printf "%-30s" "$variant"
+  for cache in "${CACHES[@]}"; do
+    printf "%10d" "$(median_millis $cache $variant)"
+  done
+  echo
+done
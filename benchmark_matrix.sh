@@ -0,0 +1,38 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+if [ "${1:-}" = "-h" ]; then
+  echo "Usage: ./benchmark_matrix.sh [--engines=<name>,...] [--keys=413,10k,1M] [--names=short,mixed,long]"
+  echo "                             [--rows=10M,100M,1B] [--cache=<dir>] [--warmup=<runs>] [--runs=<runs>]"
+  echo "                             [--timeout=<seconds>] [--cpus=<taskset list>] [--json=<file>] [--history=<file>]"
+  echo
+  echo "Times the registered engines (default: all) on every combination of station count, name length"
+  echo "and row count, generating each dataset and its expected output into ./datasets once. Each engine"
+  echo "runs in a JVM of its own per dataset. Prints a heat map of M rows/s per engine and row count and"
+  echo "writes the cells to matrix-<timestamp>.json. The default grid takes about 400 GB of datasets;"
+  echo "pass fewer --rows to start with. Build first with ./mvnw clean package -Dquick."
+  echo
+  echo "Examples:"
+  echo "./benchmark_matrix.sh --rows=10M"
+  echo "./benchmark_matrix.sh --engines=thomaswue,sachinhejip --keys=413,1M --names=short,long --rows=10M,100M"
+  exit 1
+fi
+
+java --enable-preview --add-modules jdk.incubator.vector --enable-native-access=ALL-UNNAMED \
+  --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.DatasetMatrix "$@" 2> >(grep -v "^WARNING: Using incubator modules" >&2)
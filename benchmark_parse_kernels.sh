@@ -0,0 +1,21 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Build first with ./mvnw clean package -Pjmh -Dquick
+# Pass --perf to count cycles with perf (Linux), or --ghz=<clock> to derive them; other arguments go to JMH.
+
+java --enable-preview --add-modules jdk.incubator.vector --class-path target/average-1.0.0-SNAPSHOT-benchmarks.jar dev.morling.onebrc.ParseKernelBenchmark "$@"
@@ -0,0 +1,79 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+if [ "${1:-}" = "-h" ]; then
+  echo "Usage: ./benchmark_startup.sh [number of rows ...]"
+  echo
+  echo "Times CalculateAverage_sachinhejip end to end on generated files of each number of rows (default:"
+  echo "1 1000000 1000000000), launched plain and from the AppCDS archive of prepare_sachinhejip.sh. A run"
+  echo "over a single row is all startup, class loading and output, so each run is shown with the share of"
+  echo "it that the single row run takes. Each time is the median of \$RUNS runs (default 5)."
+  echo "Build first with ./mvnw clean package -Dquick."
+  exit 1
+fi
+
+ROWS=("$@")
+if [ ${#ROWS[@]} -eq 0 ]; then
+  ROWS=(1 1000000 1000000000)
+fi
+RUNS=${RUNS:-5}
+
+JAR="$(pwd)/target/average-1.0.0-SNAPSHOT.jar"
+source ./prepare_sachinhejip.sh
+ARCHIVE="$(pwd)/$CDS_ARCHIVE"
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+declare -A LAUNCH=(
+  [plain]="-Xmx2G --enable-preview --enable-native-access=ALL-UNNAMED"
+  [cds]="-Xmx2G --enable-preview --enable-native-access=ALL-UNNAMED -XX:SharedArchiveFile=$ARCHIVE -Xlog:disable -Xlog:all=warning:stderr"
+)
+
+# prints the median wall time in ms of running the given launch in the given directory
+median_millis() {
+  local times=()
+  for ((run = 0; run < RUNS; run++)); do
+    local start=$(date +%s%N)
+    (cd "$2" && java ${LAUNCH[$1]} --class-path "$JAR" dev.morling.onebrc.CalculateAverage_sachinhejip > /dev/null)
+    times+=($((($(date +%s%N) - start) / 1000000)))
+  done
+  printf "%s\n" "${times[@]}" | sort -n | sed -n "$((RUNS / 2 + 1))p"
+}
+
+# generate <directory> <number of rows>
+generate() {
+  mkdir "$WORK_DIR/$1"
+  (cd "$WORK_DIR/$1" && java --class-path "$JAR" dev.morling.onebrc.CreateMeasurementsFast "$2" > /dev/null)
+}
+
+generate startup 1
+declare -A STARTUP
+for launch in plain cds; do
+  STARTUP[$launch]=$(median_millis $launch "$WORK_DIR/startup")
+done
+
+printf "%14s %8s %12s %12s %15s\n" "rows" "launch" "total ms" "startup ms" "startup share"
+for rows in "${ROWS[@]}"; do
+  generate "$rows" "$rows"
+  for launch in plain cds; do
+    total=$(median_millis $launch "$WORK_DIR/$rows")
+    printf "%14s %8s %12d %12d %14d%%\n" "$rows" "$launch" "$total" "${STARTUP[$launch]}" $((100 * ${STARTUP[$launch]} / total))
+  done
+  rm -rf "$WORK_DIR/$rows"
+done
@@ -0,0 +1,74 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+if [ "$#" -gt 1 ] || [ "${1:-}" = "-h" ]; then
+  echo "Usage: ./benchmark_unmap.sh [measurements file]"
+  echo
+  echo "Times the engines that map the whole file (sachinhejip, thomaswue, artsiomkorzun) on the given file"
+  echo "(default: ./measurements.txt), run directly and through UnmapInBackground, which exits once a worker"
+  echo "process has written the result and leaves unmapping to it. Outputs are checked to match, and each"
+  echo "time is the median wall time of \$RUNS runs (default 5). Build first with ./mvnw clean package -Dquick."
+  exit 1
+fi
+
+FILE=$(realpath "${1:-measurements.txt}")
+RUNS=${RUNS:-5}
+
+JAR="$(pwd)/target/average-1.0.0-SNAPSHOT.jar"
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+ln -s "$FILE" "$WORK_DIR/measurements.txt"
+
+# the JVM options of each engine's calculate_average_<fork>.sh
+declare -A JAVA_OPTS=(
+  [sachinhejip]="-Xmx2G --enable-preview --enable-native-access=ALL-UNNAMED"
+  [thomaswue]="--enable-preview"
+  [artsiomkorzun]="--enable-preview -Xmx128m -XX:+UseSerialGC -XX:-TieredCompilation"
+)
+
+# run <fork> <direct|background>
+run() {
+  local main="dev.morling.onebrc.CalculateAverage_$1"
+  if [ "$2" = "background" ]; then
+    main="dev.morling.onebrc.UnmapInBackground $main"
+  fi
+  (cd "$WORK_DIR" && java ${JAVA_OPTS[$1]} --class-path "$JAR" $main)
+}
+
+# prints the median wall time in ms of the given run
+median_millis() {
+  local times=()
+  for ((i = 0; i < RUNS; i++)); do
+    local start=$(date +%s%N)
+    run "$@" > /dev/null
+    times+=($((($(date +%s%N) - start) / 1000000)))
+  done
+  printf "%s\n" "${times[@]}" | sort -n | sed -n "$((RUNS / 2 + 1))p"
+}
+
+printf "%-14s %12s %14s %12s\n" "engine" "direct ms" "background ms" "saved ms"
+for fork in sachinhejip thomaswue artsiomkorzun; do
+  if [ "$(run $fork direct)" != "$(run $fork background)" ]; then
+    echo "FAIL $fork: the output differs when run through UnmapInBackground"
+    exit 1
+  fi
+  direct=$(median_millis $fork direct)
+  background=$(median_millis $fork background)
+  printf "%-14s %12d %14d %12d\n" "$fork" "$direct" "$background" $((direct - background))
+done
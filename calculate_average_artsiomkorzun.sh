@@ -16,4 +16,9 @@
 #
 
 JAVA_OPTS="--enable-preview -Xmx128m -XX:+UseSerialGC -XX:-TieredCompilation"
-java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.CalculateAverage_artsiomkorzun
+# UNMAP_IN_BACKGROUND=1 exits once the result is written and leaves unmapping the file to a worker process
+MAIN=dev.morling.onebrc.CalculateAverage_artsiomkorzun
+if [ -n "${UNMAP_IN_BACKGROUND:-}" ]; then
+    MAIN="dev.morling.onebrc.UnmapInBackground $MAIN"
+fi
+java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar $MAIN
@@ -19,6 +19,17 @@
 # source "$HOME/.sdkman/bin/sdkman-init.sh"
 # sdk use java 21.0.1-graal 1>&2
 
-JAVA_OPTS="-Xmx2G"
+JAVA_OPTS="-Xmx2G --enable-preview --enable-native-access=ALL-UNNAMED"
 # JAVA_OPTS=""
-time java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.CalculateAverage_sachinhejip
+# start from the class data archive of prepare_sachinhejip.sh unless the jar changed since, and keep JVM warnings
+# (such as a stale archive) out of the result on stdout
+if [ target/CalculateAverage_sachinhejip.jsa -nt target/average-1.0.0-SNAPSHOT.jar ]; then
+    JAVA_OPTS="$JAVA_OPTS -XX:SharedArchiveFile=target/CalculateAverage_sachinhejip.jsa"
+fi
+JAVA_OPTS="$JAVA_OPTS -Xlog:disable -Xlog:all=warning:stderr"
+# UNMAP_IN_BACKGROUND=1 exits once the result is written and leaves unmapping the file to a worker process
+MAIN=dev.morling.onebrc.CalculateAverage_sachinhejip
+if [ -n "${UNMAP_IN_BACKGROUND:-}" ]; then
+    MAIN="dev.morling.onebrc.UnmapInBackground $MAIN"
+fi
+time java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar $MAIN "$@"
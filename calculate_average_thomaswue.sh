@@ -21,6 +21,11 @@ if [ -f target/CalculateAverage_thomaswue_image ]; then
 else
     JAVA_OPTS="--enable-preview"
     echo "Chosing to run the app in JVM mode as no native image was found, use prepare_thomaswue.sh to generate." 1>&2
-    java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.CalculateAverage_thomaswue
+    # UNMAP_IN_BACKGROUND=1 exits once the result is written and leaves unmapping the file to a worker process
+    MAIN=dev.morling.onebrc.CalculateAverage_thomaswue
+    if [ -n "${UNMAP_IN_BACKGROUND:-}" ]; then
+        MAIN="dev.morling.onebrc.UnmapInBackground $MAIN"
+    fi
+    java $JAVA_OPTS --class-path target/average-1.0.0-SNAPSHOT.jar $MAIN
 fi
 
@@ -21,6 +21,7 @@ if [ -z "$1" ]
   then
     echo "Usage: evaluate2.sh <fork name> (<fork name 2> ...)"
     echo " for each fork, there must be a 'calculate_average_<fork name>.sh' script and an optional 'prepare_<fork name>.sh'."
+    echo " with COLD_CACHE=1, each fork is also timed with the measurements evicted from the page cache before every run."
     exit 1
 fi
 
@@ -37,6 +38,7 @@ MEASUREMENTS_FILE="measurements_1B.txt"
 RUNS=5
 DEFAULT_JAVA_VERSION="21.0.1-open"
 RUN_TIME_LIMIT=300 # seconds
+COLD_CACHE=${COLD_CACHE:-}
 
 TIMEOUT=""
 if [ "$(uname -s)" == "Linux" ]; then
@@ -61,6 +63,20 @@ function print_and_execute() {
   "$@"
 }
 
+# runs hyperfine with the given options on ./calculate_average_$fork.sh
+function run_hyperfine {
+  # check if this script is running on a Linux box
+  if [ "$(uname -s)" == "Linux" ]; then
+    check_command_installed numactl
+
+    # Linux platform
+    # prepend this with numactl --physcpubind=0-7 for running it only with 8 cores
+    numactl --physcpubind=0-7 hyperfine "$@" "$TIMEOUT ./calculate_average_$fork.sh 2>&1"
+  else # MacOS
+    hyperfine "$@" "$TIMEOUT ./calculate_average_$fork.sh 2>&1"
+  fi
+}
+
 check_command_installed java
 check_command_installed hyperfine
 check_command_installed jq
@@ -178,16 +194,7 @@ for fork in "$@"; do
   # Use hyperfine to run the benchmark for each fork
   HYPERFINE_OPTS="--warmup 0 --runs $RUNS --export-json $fork-$filetimestamp-timing.json --output ./$fork-$filetimestamp.out"
 
-  # check if this script is running on a Linux box
-  if [ "$(uname -s)" == "Linux" ]; then
-    check_command_installed numactl
-
-    # Linux platform
-    # prepend this with numactl --physcpubind=0-7 for running it only with 8 cores
-    numactl --physcpubind=0-7 hyperfine $HYPERFINE_OPTS "$TIMEOUT ./calculate_average_$fork.sh 2>&1"
-  else # MacOS
-    hyperfine $HYPERFINE_OPTS "$TIMEOUT ./calculate_average_$fork.sh 2>&1"
-  fi
+  run_hyperfine $HYPERFINE_OPTS
   # Catch hyperfine command failed
   if [ $? -ne 0 ]; then
     failed+=("$fork")
@@ -195,6 +202,19 @@ for fork in "$@"; do
     echo ""
     continue
   fi
+
+  if [ -n "$COLD_CACHE" ]; then
+    # the runs above leave the file cached, so all but the first of them were warm. PageCache evicts it before each
+    # run through posix_fadvise, which needs no root, on the default JDK that built the jar (whatever the fork uses)
+    EVICT="$HOME/.sdkman/candidates/java/$DEFAULT_JAVA_VERSION/bin/java --enable-preview --enable-native-access=ALL-UNNAMED"
+    EVICT="$EVICT --class-path target/average-1.0.0-SNAPSHOT.jar dev.morling.onebrc.PageCache $MEASUREMENTS_FILE"
+    run_hyperfine --warmup 0 --runs $RUNS --prepare "$EVICT" --export-json $fork-$filetimestamp-cold-timing.json --output ./$fork-$filetimestamp-cold.out
+    if [ $? -ne 0 ]; then
+      failed+=("$fork")
+      echo ""
+      continue
+    fi
+  fi
 done
 set -e
 rm $test_output
@@ -222,6 +242,12 @@ for fork in "$@"; do
   fi
 
   echo -e "  ${color}$fork${RESET}: trimmed mean ${BOLD_WHITE}$trimmed_mean${RESET}, raw times ${BOLD_WHITE}$raw_times${RESET}"
+
+  if [ -f "$fork-$filetimestamp-cold-timing.json" ]; then
+    trimmed_mean=$(jq -r '.results[0].times | sort_by(.|tonumber) | .[1:-1] | add / length' $fork-$filetimestamp-cold-timing.json)
+    raw_times=$(jq -r '.results[0].times | join(",")' $fork-$filetimestamp-cold-timing.json)
+    echo -e "  ${color}$fork${RESET} (cold cache): trimmed mean ${BOLD_WHITE}$trimmed_mean${RESET}, raw times ${BOLD_WHITE}$raw_times${RESET}"
+  fi
 done
 echo ""
 
@@ -317,4 +343,10 @@ for fork in "$@"; do
   if [ -f "$fork-$filetimestamp.out" ]; then
     echo "  $fork-$filetimestamp.out"
   fi
+
+  if [ -f "$fork-$filetimestamp-cold-timing.json" ]; then
+      cat $fork-$filetimestamp-cold-timing.json >> $fork-$filetimestamp-cold.out
+      rm $fork-$filetimestamp-cold-timing.json
+      echo "  $fork-$filetimestamp-cold.out"
+  fi
 done
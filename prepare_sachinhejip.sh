@@ -0,0 +1,37 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+# Uncomment below to use sdk
+# source "$HOME/.sdkman/bin/sdkman-init.sh"
+# sdk use java 21.0.1-graal 1>&2
+
+# Dumps the classes, lambdas and method handles that a training run over the test samples loads into an AppCDS
+# archive, which calculate_average_sachinhejip.sh starts from. The archive is only good for the jar and JVM it was
+# built with, so it is rebuilt whenever the jar is newer; delete it after switching JVMs.
+CDS_JAR=target/average-1.0.0-SNAPSHOT.jar
+CDS_ARCHIVE=target/CalculateAverage_sachinhejip.jsa
+if [ ! -f $CDS_ARCHIVE ] || [ $CDS_JAR -nt $CDS_ARCHIVE ]; then
+    rm -f $CDS_ARCHIVE
+    CDS_TRAINING_DIR=$(mktemp -d)
+    for sample in src/test/resources/samples/*.txt; do
+        sed -e '$a\' "$sample"
+    done > "$CDS_TRAINING_DIR/measurements.txt"
+    # the same options as calculate_average_sachinhejip.sh, as the JVM only maps the archive if they match
+    (cd "$CDS_TRAINING_DIR" && java -Xmx2G --enable-preview --enable-native-access=ALL-UNNAMED -XX:ArchiveClassesAtExit="$OLDPWD/$CDS_ARCHIVE" \
+        --class-path "$OLDPWD/$CDS_JAR" dev.morling.onebrc.CalculateAverage_sachinhejip > /dev/null)
+    rm -rf "$CDS_TRAINING_DIR"
+fi
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * In-memory measurements for the benchmarks, built from {@code data/weather_stations.csv} (run them from the
+ * repository root) with a fixed seed so that every fork and run sees the same bytes.
+ */
+final class BenchmarkData {
+
+    static final Path WEATHER_STATIONS = Path.of("data/weather_stations.csv");
+    static final long SEED = 42;
+
+    record WeatherStation(String name, double meanTemperature) {
+    }
+
+    /**
+     * How often each station comes up: all alike, or the station at rank {@code k} (in CSV order) about
+     * {@code 1/k} times as often as the first.
+     */
+    enum Access {
+        UNIFORM,
+        ZIPF
+    }
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Returns the first {@code count} distinct stations of the CSV.
+     */
+    static List<WeatherStation> stations(int count) throws IOException {
+        List<WeatherStation> stations = new ArrayList<>(count);
+        Set<String> names = new LinkedHashSet<>();
+        try (BufferedReader rows = Files.newBufferedReader(WEATHER_STATIONS, StandardCharsets.UTF_8)) {
+            String row;
+            while (stations.size() < count && (row = rows.readLine()) != null) {
+                if (row.startsWith("#")) {
+                    continue;
+                }
+                int separator = row.indexOf(';');
+                String name = row.substring(0, separator);
+                if (names.add(name)) {
+                    stations.add(new WeatherStation(name, Double.parseDouble(row.substring(separator + 1))));
+                }
+            }
+        }
+        if (stations.size() < count) {
+            throw new IllegalArgumentException("Only " + stations.size() + " distinct stations in " + WEATHER_STATIONS);
+        }
+        return stations;
+    }
+
+    /**
+     * Returns {@code rows} lines of {@code <station>;<temperature>}, picking stations uniformly and temperatures
+     * around their mean like {@link CreateMeasurements} does.
+     */
+    static byte[] measurements(List<WeatherStation> stations, int rows) {
+        Random random = new Random(SEED);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rows * 16);
+        byte[][] names = new byte[stations.size()][];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = (stations.get(i).name() + ";").getBytes(StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < rows; i++) {
+            int station = random.nextInt(stations.size());
+            int tenths = tenths(random, stations.get(station).meanTemperature());
+            String sign = tenths < 0 ? "-" : "";
+            tenths = Math.abs(tenths);
+            out.writeBytes(names[station]);
+            out.writeBytes((sign + tenths / 10 + "." + tenths % 10 + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the indexes of {@code length} stations out of {@code stations}, drawn with the given access pattern.
+     */
+    static int[] accessSequence(int stations, int length, Access access) {
+        Random random = new Random(SEED);
+        int[] sequence = new int[length];
+        if (access == Access.UNIFORM) {
+            Arrays.setAll(sequence, i -> random.nextInt(stations));
+            return sequence;
+        }
+        double[] cumulative = new double[stations];
+        double total = 0;
+        for (int k = 0; k < stations; k++) {
+            total += 1.0 / (k + 1);
+            cumulative[k] = total;
+        }
+        for (int i = 0; i < length; i++) {
+            int k = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            sequence[i] = Math.min(k < 0 ? -k - 1 : k, stations - 1);
+        }
+        return sequence;
+    }
+
+    /**
+     * Returns a temperature in tenths of a degree around the given mean, like {@link CreateMeasurements} draws them.
+     */
+    static int tenths(Random random, double mean) {
+        return (int) Math.clamp(Math.round((mean + random.nextGaussian() * 10) * 10), -999, 999);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * What sachinhejip's {@code --histogram} costs over plain min/mean/max, stage by stage: parsing rows into a table
+ * (ns per row), merging one shard's table into another and turning a table into the formatted result (µs per
+ * table). The tables are kept across invocations, so parsing and merging keep adding to stations they already
+ * hold, like a shard does for most of a run.
+ * <p>
+ * Running {@link #main(String[])} prints the overhead of histograms for each stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HistogramBenchmark {
+
+    static final int ROWS = 1_000_000;
+    // room for the long reads past the last row
+    private static final int PADDING = 128;
+
+    @Param({ "413", "10000" })
+    int stations;
+
+    @Param({ "false", "true" })
+    boolean histograms;
+
+    private ByteBuffer buffer;
+    private CalculateAverage_sachinhejip.Stations table;
+    private CalculateAverage_sachinhejip.Stations shardTable;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] rows = BenchmarkData.measurements(BenchmarkData.stations(stations), ROWS);
+        MemorySegment segment = Arena.ofShared().allocate(rows.length + PADDING);
+        MemorySegment.copy(MemorySegment.ofArray(rows), 0, segment, 0, rows.length);
+        buffer = segment.asSlice(0, rows.length).asByteBuffer();
+        table = new CalculateAverage_sachinhejip.OffHeapStations(histograms);
+        CalculateAverage_sachinhejip.parse(buffer.duplicate(), CalculateAverage_sachinhejip.PARSER.SWAR, table);
+        shardTable = new CalculateAverage_sachinhejip.OffHeapStations(histograms);
+        CalculateAverage_sachinhejip.parse(buffer.duplicate(), CalculateAverage_sachinhejip.PARSER.SWAR, shardTable);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(ROWS)
+    public void parse() {
+        CalculateAverage_sachinhejip.parse(buffer.duplicate(), CalculateAverage_sachinhejip.PARSER.SWAR, table);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public CalculateAverage_sachinhejip.Stations merge() {
+        return table.merge(shardTable);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ResultWriter results() {
+        return table.results();
+    }
+
+    /**
+     * Runs the benchmarks and prints each stage with and without histograms. Arguments are JMH's.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Collection<RunResult> runs = new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(HistogramBenchmark.class.getName())
+                .build()).run();
+        Map<String, Double> plain = new HashMap<>();
+        for (RunResult run : runs) {
+            if (run.getParams().getParam("histograms").equals("false")) {
+                plain.put(stage(run) + "/" + run.getParams().getParam("stations"), run.getPrimaryResult().getScore());
+            }
+        }
+        System.out.printf("%-10s %8s %10s %12s %12s %10s%n", "Stage", "stations", "unit", "plain", "histogram", "overhead");
+        for (RunResult run : runs) {
+            String stations = run.getParams().getParam("stations");
+            Double without = plain.get(stage(run) + "/" + stations);
+            if (run.getParams().getParam("histograms").equals("true") && without != null) {
+                double with = run.getPrimaryResult().getScore();
+                System.out.printf("%-10s %8s %10s %12.2f %12.2f %9.0f%%%n", stage(run), stations, run.getPrimaryResult().getScoreUnit(), without, with,
+                        (with / without - 1) * 100);
+            }
+        }
+    }
+
+    private static String stage(RunResult run) {
+        return run.getParams().getBenchmark().substring(HistogramBenchmark.class.getName().length() + 1);
+    }
+}
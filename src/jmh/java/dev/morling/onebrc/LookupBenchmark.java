@@ -0,0 +1,436 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import sun.misc.Unsafe;
+
+/**
+ * The lookup-and-accumulate step of several engines on its own: every operation finds the entry of one station
+ * and adds a temperature to it. Names are tokenised up front into whatever each structure takes (bytes and the
+ * engine's hash, {@code long[]} words, an address, ...), so that no parsing is measured.
+ * <p>
+ * Running {@link #main(String[])} prints ops/s per structure, L1 and LLC load misses per op with {@code --perf},
+ * and the memory each structure retains once it holds every station.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(LookupBenchmark.LOOKUPS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LookupBenchmark {
+
+    static final int LOOKUPS = 1 << 20;
+    private static final int MAX_NAME_LENGTH = 128;
+    // the benchmarks, in the order the retained memory is printed
+    private static final List<String> STRUCTURES = List.of("sachinhejipTrie", "sachinhejipOffHeap", "thomaswueResults", "parkertimminsOpenHashTable",
+            "jbachorikStatsMap", "richardstartinDictionary", "hundredwattHashTable");
+
+    @Param({ "413", "10000" })
+    int stations;
+
+    @Param({ "UNIFORM", "ZIPF" })
+    String access;
+
+    private int[] sequence;
+    private short[] temperatures;
+    private Keys keys;
+
+    private CalculateAverage_sachinhejip.Stations trie;
+    private CalculateAverage_sachinhejip.Stations offHeap;
+    private CalculateAverage_thomaswue.Result[] thomaswue;
+    private CalculateAverage_parkertimmins.OpenHashTable parkertimmins;
+    private CalculateAverage_jbachorik.StatsMap jbachorik;
+    private CalculateAverage_richardstartin.Dictionary richardstartin;
+    private CalculateAverage_hundredwatt.HashTable hundredwatt;
+
+    /**
+     * The stations' names in the form each structure looks them up by, computed as the engine's parser would.
+     */
+    static final class Keys {
+        final byte[][] names;
+        final int[] lengths;
+        // zero padded to MAX_NAME_LENGTH, for the structures that read whole words
+        final byte[][] padded;
+        final int[] swarHashes;
+        // name and ';' in native memory, as thomaswue reads them from the mapped file
+        final long[] addresses;
+        final long[] thomaswueHashes;
+        final CalculateAverage_thomaswue.Scanner thomaswueScanner;
+        final int[] parkertimminsHashes;
+        final ByteBuffer jbachorikBuffer;
+        final CalculateAverage_jbachorik.Key[] jbachorikKeys;
+        final int[] richardstartinHashes;
+        final long[][] hundredwattWords;
+        final int[] hundredwattHashes;
+
+        Keys(List<BenchmarkData.WeatherStation> stations) {
+            int count = stations.size();
+            names = new byte[count][];
+            lengths = new int[count];
+            padded = new byte[count][];
+            swarHashes = new int[count];
+            addresses = new long[count];
+            thomaswueHashes = new long[count];
+            parkertimminsHashes = new int[count];
+            jbachorikKeys = new CalculateAverage_jbachorik.Key[count];
+            richardstartinHashes = new int[count];
+            hundredwattWords = new long[count][];
+            hundredwattHashes = new int[count];
+
+            MemorySegment memory = Arena.ofShared().allocate((long) count * (MAX_NAME_LENGTH + 8));
+            thomaswueScanner = new CalculateAverage_thomaswue.Scanner(memory.address(), memory.address() + memory.byteSize());
+            StringBuilder lines = new StringBuilder();
+            for (int k = 0; k < count; k++) {
+                names[k] = stations.get(k).name().getBytes(StandardCharsets.UTF_8);
+                lengths[k] = names[k].length;
+                padded[k] = new byte[MAX_NAME_LENGTH];
+                System.arraycopy(names[k], 0, padded[k], 0, lengths[k]);
+                swarHashes[k] = swarHash(padded[k], lengths[k]);
+
+                long offset = (long) k * (MAX_NAME_LENGTH + 8);
+                MemorySegment.copy(padded[k], 0, memory, ValueLayout.JAVA_BYTE, offset, MAX_NAME_LENGTH);
+                memory.set(ValueLayout.JAVA_BYTE, offset + lengths[k], (byte) ';');
+                addresses[k] = memory.address() + offset;
+                thomaswueHashes[k] = thomaswueHash(memory, offset);
+
+                parkertimminsHashes[k] = CalculateAverage_parkertimmins.hash(padded[k], lengths[k]);
+                richardstartinHashes[k] = CalculateAverage_richardstartin.hash(names[k], lengths[k]);
+
+                hundredwattWords[k] = new long[(lengths[k] + 8) / 8];
+                ByteBuffer.wrap(padded[k]).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(hundredwattWords[k]);
+                long hash = 0;
+                for (long word : hundredwattWords[k]) {
+                    hash ^= word;
+                }
+                hundredwattHashes[k] = (int) (hash ^ (hash >> 32));
+
+                lines.append(stations.get(k).name()).append(";0.0\n");
+            }
+
+            // jbachorik's hash and trailing words come out of its own chunk parser, keyed by offsets into the chunk
+            jbachorikBuffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            Map<String, CalculateAverage_jbachorik.Key> byName = new HashMap<>();
+            CalculateAverage_jbachorik.processChunk(jbachorikBuffer).forEach((key, stats) -> byName.put(key.toString(), key));
+            for (int k = 0; k < count; k++) {
+                jbachorikKeys[k] = byName.get(stations.get(k).name());
+            }
+        }
+
+        // as CalculateAverage_sachinhejip.Shard#parseLineSwar hashes the name
+        private static int swarHash(byte[] padded, int length) {
+            ByteBuffer words = ByteBuffer.wrap(padded).order(ByteOrder.LITTLE_ENDIAN);
+            long hash = 0;
+            int i = 0;
+            for (; i + 8 <= length; i += 8) {
+                hash = (hash ^ words.getLong(i)) * 0x9E3779B97F4A7C15L;
+            }
+            long last = words.getLong(i) & ((1L << ((length - i) << 3)) - 1);
+            hash = (hash ^ last) * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        // as CalculateAverage_thomaswue#parseLoop hashes the name, the last word masked to end at the ';'
+        private static long thomaswueHash(MemorySegment memory, long offset) {
+            long hash = 0;
+            while (true) {
+                long word = memory.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+                int pos = CalculateAverage_thomaswue.findDelimiter(word);
+                if (pos != 8) {
+                    return hash ^ (word & (-1L >>> ((8 - pos - 1) << 3)));
+                }
+                hash ^= word;
+                offset += 8;
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUpKeys() throws IOException {
+        List<BenchmarkData.WeatherStation> weatherStations = BenchmarkData.stations(stations);
+        keys = new Keys(weatherStations);
+        sequence = BenchmarkData.accessSequence(stations, LOOKUPS, BenchmarkData.Access.valueOf(access));
+        temperatures = new short[LOOKUPS];
+        Random random = new Random(BenchmarkData.SEED);
+        for (int i = 0; i < LOOKUPS; i++) {
+            temperatures[i] = (short) BenchmarkData.tenths(random, weatherStations.get(sequence[i]).meanTemperature());
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpStructures() {
+        trie = new CalculateAverage_sachinhejip.TrieStations();
+        offHeap = new CalculateAverage_sachinhejip.OffHeapStations();
+        thomaswue = new CalculateAverage_thomaswue.Result[1 << 18];
+        parkertimmins = new CalculateAverage_parkertimmins.OpenHashTable();
+        jbachorik = new CalculateAverage_jbachorik.StatsMap();
+        richardstartin = new CalculateAverage_richardstartin.Dictionary();
+        hundredwatt = new CalculateAverage_hundredwatt.HashTable();
+    }
+
+    @Benchmark
+    public Object sachinhejipTrie() {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = sequence[i];
+            trie.add(keys.padded[k], Unsafe.ARRAY_BYTE_BASE_OFFSET, keys.lengths[k], 0, temperatures[i]);
+        }
+        return trie;
+    }
+
+    @Benchmark
+    public Object sachinhejipOffHeap() {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = sequence[i];
+            offHeap.add(keys.padded[k], Unsafe.ARRAY_BYTE_BASE_OFFSET, keys.lengths[k], keys.swarHashes[k], temperatures[i]);
+        }
+        return offHeap;
+    }
+
+    // the probe of CalculateAverage_thomaswue#parseLoop, without the shortcut for names it has just seen
+    @Benchmark
+    public Object thomaswueResults() {
+        CalculateAverage_thomaswue.Scanner scanner = keys.thomaswueScanner;
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = sequence[i];
+            long nameAddress = keys.addresses[k];
+            int nameLength = keys.lengths[k];
+            int tableIndex = CalculateAverage_thomaswue.hashToIndex(keys.thomaswueHashes[k], thomaswue);
+            outer: while (true) {
+                CalculateAverage_thomaswue.Result existingResult = thomaswue[tableIndex];
+                if (existingResult == null) {
+                    existingResult = CalculateAverage_thomaswue.newEntry(thomaswue, nameAddress, tableIndex, nameLength, scanner);
+                }
+                int j = 0;
+                for (; j < nameLength + 1 - 8; j += 8) {
+                    if (scanner.getLongAt(existingResult.nameAddress + j) != scanner.getLongAt(nameAddress + j)) {
+                        tableIndex = (tableIndex + 1) & (thomaswue.length - 1);
+                        continue outer;
+                    }
+                }
+                if (((existingResult.lastNameLong ^ scanner.getLongAt(nameAddress + j)) << existingResult.remainingShift) == 0) {
+                    CalculateAverage_thomaswue.record(existingResult, temperatures[i]);
+                    break;
+                }
+                tableIndex = (tableIndex + 1) & (thomaswue.length - 1);
+            }
+        }
+        return thomaswue;
+    }
+
+    @Benchmark
+    public Object parkertimminsOpenHashTable() {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = sequence[i];
+            parkertimmins.add(keys.padded[k], keys.lengths[k], temperatures[i], keys.parkertimminsHashes[k]);
+        }
+        return parkertimmins;
+    }
+
+    @Benchmark
+    public Object jbachorikStatsMap() {
+        for (int i = 0; i < LOOKUPS; i++) {
+            CalculateAverage_jbachorik.Key key = keys.jbachorikKeys[sequence[i]];
+            jbachorik.getOrInsert(keys.jbachorikBuffer, key.offset, key.len, key.hash, key.v0, key.v1).add(temperatures[i]);
+        }
+        return jbachorik;
+    }
+
+    @Benchmark
+    public Object richardstartinDictionary() {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = sequence[i];
+            richardstartin.lookup(keys.richardstartinHashes[k], keys.names[k], keys.lengths[k], 1).update(0, temperatures[i]);
+        }
+        return richardstartin;
+    }
+
+    @Benchmark
+    public Object hundredwattHashTable() {
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = sequence[i];
+            long[] words = keys.hundredwattWords[k];
+            hundredwatt.putOrMerge(keys.hundredwattHashes[k], words.length, words, temperatures[i]);
+        }
+        return hundredwatt;
+    }
+
+    /**
+     * Runs the benchmarks, then prints ops/s, L1 and LLC load misses per op (with {@code --perf}) and the heap and
+     * direct memory each structure retains holding every station. Other arguments are JMH's.
+     */
+    public static void main(String[] args) throws RunnerException, IOException, CommandLineOptionException, InterruptedException {
+        boolean perf = false;
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--perf")) {
+                perf = true;
+            }
+            else {
+                jmhArgs.add(arg);
+            }
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs.toArray(String[]::new)))
+                .include(LookupBenchmark.class.getName());
+        if (perf) {
+            options.addProfiler(LinuxPerfNormProfiler.class, "events=L1-dcache-load-misses,LLC-load-misses");
+        }
+        Collection<RunResult> runs = new Runner(options.build()).run();
+
+        System.out.printf("%-28s %8s %8s %14s %12s %12s%n", "Structure", "stations", "access", "ops/s", "L1 miss/op", "LLC miss/op");
+        for (RunResult run : runs) {
+            String structure = run.getParams().getBenchmark().substring(LookupBenchmark.class.getName().length() + 1);
+            System.out.printf("%-28s %8s %8s %14.0f %12s %12s%n", structure, run.getParams().getParam("stations"), run.getParams().getParam("access"),
+                    run.getPrimaryResult().getScore(), secondary(run, "L1-dcache-load-misses"), secondary(run, "LLC-load-misses"));
+        }
+
+        System.out.printf("%n%-28s %8s %14s %14s%n", "Structure", "stations", "heap KB", "direct KB");
+        for (int stations : new int[]{ 413, 10_000 }) {
+            LookupBenchmark benchmark = new LookupBenchmark();
+            benchmark.stations = stations;
+            benchmark.access = "UNIFORM";
+            benchmark.setUpKeys();
+            for (String structure : STRUCTURES) {
+                printRetained(benchmark, structure);
+            }
+        }
+    }
+
+    // Only the benchmark's field references the structure, so that what dropping it frees is what it retains
+    private static void printRetained(LookupBenchmark benchmark, String structure) throws InterruptedException {
+        benchmark.fill(structure);
+        settle();
+        long heap = usedHeap();
+        long direct = usedDirect();
+        benchmark.clearStructures();
+        settle();
+        System.out.printf("%-28s %8d %14d %14d%n", structure, benchmark.stations, (heap - usedHeap()) / 1024, (direct - usedDirect()) / 1024);
+    }
+
+    private void clearStructures() {
+        trie = offHeap = null;
+        thomaswue = null;
+        parkertimmins = null;
+        jbachorik = null;
+        richardstartin = null;
+        hundredwatt = null;
+    }
+
+    // Creates just the one structure and runs its benchmark once
+    private void fill(String structure) {
+        switch (structure) {
+            case "sachinhejipTrie" -> {
+                trie = new CalculateAverage_sachinhejip.TrieStations();
+                sachinhejipTrie();
+            }
+            case "sachinhejipOffHeap" -> {
+                offHeap = new CalculateAverage_sachinhejip.OffHeapStations();
+                sachinhejipOffHeap();
+            }
+            case "thomaswueResults" -> {
+                thomaswue = new CalculateAverage_thomaswue.Result[1 << 18];
+                thomaswueResults();
+            }
+            case "parkertimminsOpenHashTable" -> {
+                parkertimmins = new CalculateAverage_parkertimmins.OpenHashTable();
+                parkertimminsOpenHashTable();
+            }
+            case "jbachorikStatsMap" -> {
+                jbachorik = new CalculateAverage_jbachorik.StatsMap();
+                jbachorikStatsMap();
+            }
+            case "richardstartinDictionary" -> {
+                richardstartin = new CalculateAverage_richardstartin.Dictionary();
+                richardstartinDictionary();
+            }
+            case "hundredwattHashTable" -> {
+                hundredwatt = new CalculateAverage_hundredwatt.HashTable();
+                hundredwattHashTable();
+            }
+            default -> throw new IllegalArgumentException(structure);
+        }
+    }
+
+    private static String secondary(RunResult run, String event) {
+        Result<?> result = run.getSecondaryResults().get(event);
+        return result == null ? "-" : String.format("%.3f", result.getScore());
+    }
+
+    // Collects until the cleaners of unreachable off-heap memory had time to run
+    private static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+
+    // What the last collection left, which unlike the current usage doesn't count the TLABs handed out since
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                .mapToLong(pool -> pool.getCollectionUsage().getUsed())
+                .sum();
+    }
+
+    private static long usedDirect() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.LinuxPerfNormProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The line parsing kernels over the same in-memory rows, scored in ns per row. The sachinhejip parsers and
+ * merykitty's vector loop include their own station lookup, as that's how they ship; thomaswue's
+ * {@code findDelimiter}/{@code convertIntoNumber} and the {@code Double.parseDouble} baseline only parse. Both
+ * kinds of tables are allocated once per iteration and emptied before every invocation, outside the timing, so that
+ * every invocation adds the same new stations.
+ * <p>
+ * Running {@link #main(String[])} also reports bytes per cycle, from perf's cycle counts with {@code --perf}
+ * or from ns per row and {@code --ghz=<clock>}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(ParseKernelBenchmark.ROWS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.vector" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParseKernelBenchmark {
+
+    static final int ROWS = 1_000_000;
+    // room for the long and vector reads past the last row
+    private static final int PADDING = 128;
+
+    @Param({ "413", "10000" })
+    int stations;
+
+    private byte[] rows;
+    private ByteBuffer buffer;
+    private MemorySegment segment;
+    private CalculateAverage_sachinhejip.OffHeapStations sachinhejipTable;
+    private CalculateAverage_merykitty.PoorManMap merykittyMap;
+
+    @Setup
+    public void setUp() throws IOException {
+        rows = BenchmarkData.measurements(BenchmarkData.stations(stations), ROWS);
+        segment = Arena.ofShared().allocate(rows.length + PADDING);
+        MemorySegment.copy(MemorySegment.ofArray(rows), 0, segment, 0, rows.length);
+        buffer = segment.asSlice(0, rows.length).asByteBuffer();
+    }
+
+    @Setup(Level.Iteration)
+    public void allocateTables() {
+        sachinhejipTable = new CalculateAverage_sachinhejip.OffHeapStations();
+        merykittyMap = new CalculateAverage_merykitty.PoorManMap();
+    }
+
+    // an invocation parses a million rows, long enough for JMH to set up each one apart
+    @Setup(Level.Invocation)
+    public void clearTables() {
+        sachinhejipTable.clear();
+        Arrays.fill(merykittyMap.nodes, null);
+    }
+
+    @Benchmark
+    public void sachinhejipBytes() {
+        CalculateAverage_sachinhejip.parse(buffer.duplicate(), CalculateAverage_sachinhejip.PARSER.BYTES, sachinhejipTable);
+    }
+
+    @Benchmark
+    public void sachinhejipSwar() {
+        CalculateAverage_sachinhejip.parse(buffer.duplicate(), CalculateAverage_sachinhejip.PARSER.SWAR, sachinhejipTable);
+    }
+
+    @Benchmark
+    public void sachinhejipVector() {
+        CalculateAverage_sachinhejip.parse(buffer.duplicate(), CalculateAverage_sachinhejip.PARSER.VECTOR, sachinhejipTable);
+    }
+
+    @Benchmark
+    public long thomaswueFindDelimiterConvertIntoNumber() {
+        long sum = 0;
+        long pos = 0;
+        while (pos < rows.length) {
+            long word = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, pos);
+            int delimiter = CalculateAverage_thomaswue.findDelimiter(word);
+            while (delimiter == 8) {
+                pos += 8;
+                word = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, pos);
+                delimiter = CalculateAverage_thomaswue.findDelimiter(word);
+            }
+            pos += delimiter + 1;
+            long numberWord = segment.get(ValueLayout.JAVA_LONG_UNALIGNED, pos);
+            int decimalSepPos = Long.numberOfTrailingZeros(~numberWord & 0x10101000);
+            sum += CalculateAverage_thomaswue.convertIntoNumber(decimalSepPos, numberWord);
+            pos += (decimalSepPos >>> 3) + 3;
+        }
+        return sum;
+    }
+
+    // the rows closest to the end are left out, as merykitty hands them to a scalar loop
+    @Benchmark
+    public long merykittyVector() {
+        long offset = 0;
+        while (offset < rows.length - PADDING) {
+            offset = CalculateAverage_merykitty.iterate(merykittyMap, segment, offset);
+        }
+        return offset;
+    }
+
+    @Benchmark
+    public double parseDoubleBaseline() {
+        double sum = 0;
+        int semicolon = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == ';') {
+                semicolon = i;
+            }
+            else if (rows[i] == '\n') {
+                sum += Double.parseDouble(new String(rows, semicolon + 1, i - semicolon - 1, StandardCharsets.US_ASCII));
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Runs the benchmarks and prints ns per row and bytes per cycle for each. Pass {@code --perf} to count cycles
+     * with perf, or {@code --ghz=<clock>} to derive them from the time instead. Other arguments are JMH's.
+     */
+    public static void main(String[] args) throws RunnerException, IOException, CommandLineOptionException {
+        boolean perf = false;
+        double ghz = Double.NaN;
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--perf")) {
+                perf = true;
+            }
+            else if (arg.startsWith("--ghz=")) {
+                ghz = Double.parseDouble(arg.substring("--ghz=".length()));
+            }
+            else {
+                jmhArgs.add(arg);
+            }
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs.toArray(String[]::new)))
+                .include(ParseKernelBenchmark.class.getName());
+        if (perf) {
+            options.addProfiler(LinuxPerfNormProfiler.class);
+        }
+        Collection<RunResult> runs = new Runner(options.build()).run();
+        System.out.printf("%-45s %8s %10s %12s%n", "Kernel", "stations", "ns/row", "bytes/cycle");
+        for (RunResult run : runs) {
+            int stations = Integer.parseInt(run.getParams().getParam("stations"));
+            double bytesPerRow = (double) BenchmarkData.measurements(BenchmarkData.stations(stations), ROWS).length / ROWS;
+            double nsPerRow = run.getPrimaryResult().getScore();
+            Result<?> cycles = run.getSecondaryResults().get("cycles");
+            double cyclesPerRow = cycles != null ? cycles.getScore() : nsPerRow * ghz;
+            String kernel = run.getParams().getBenchmark().substring(ParseKernelBenchmark.class.getName().length() + 1);
+            System.out.printf("%-45s %8d %10.2f %12.2f%n", kernel, stations, nsPerRow, bytesPerRow / cyclesPerRow);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps {@link StationAggregator} running behind a local HTTP endpoint, so that a query pays for parsing only and
+ * not for starting a JVM, loading classes and JIT compiling the engine:
+ *
+ * <pre>
+ * curl -X POST 'http://localhost:8080/aggregate?path=/data/measurements.txt'
+ * </pre>
+ *
+ * answers with the 1BRC output, {@code {<station>=<min>/<mean>/<max>, ...}}. The time taken is reported in a
+ * {@code Server-Timing} header and on stderr, as {@code map} for mapping the file and {@code parse} for aggregating
+ * it. The parsing threads are pooled, and a file stays mapped for as long as its size and modification time don't
+ * change. Requests are served one at a time, each with every parsing thread.
+ */
+public final class AggregationDaemon {
+
+    static final int DEFAULT_PORT = 8080;
+    // the least recently queried file is unmapped beyond this
+    static final int MAX_MAPPED_FILES = 16;
+
+    private record MappedFile(Arena arena, MemorySegment segment, long size, FileTime lastModified) {
+    }
+
+    private final StationAggregator.Options options;
+    private final Map<Path, MappedFile> mapped = new LinkedHashMap<>(16, 0.75f, true);
+
+    AggregationDaemon(StationAggregator.Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            }
+            else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --port=<port> or --threads=<threads>");
+            }
+        }
+        // the thread serving a request parses too, so the pool makes up the rest
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads - 1),
+                Thread.ofPlatform().name("aggregation-worker-", 0).daemon().factory());
+        new AggregationDaemon(new StationAggregator.Options(threads, workers)).start(port);
+        System.err.println("Listening on http://localhost:" + port + "/aggregate with " + threads + " threads");
+    }
+
+    /**
+     * Starts serving on the loopback interface. Requests are handled on the server's dispatcher thread.
+     */
+    HttpServer start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/aggregate", this::aggregate);
+        server.start();
+        return server;
+    }
+
+    private void aggregate(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "Only POST is supported");
+                return;
+            }
+            String path = queryParameter(exchange, "path");
+            if (path == null) {
+                respond(exchange, 400, "Expected POST /aggregate?path=<file>");
+                return;
+            }
+            Path file = Path.of(path);
+            if (!Files.isRegularFile(file)) {
+                respond(exchange, 404, "No such file " + file);
+                return;
+            }
+            long start = System.nanoTime();
+            MemorySegment segment = map(file);
+            long mapped = System.nanoTime();
+            StationAggregator.Result result = StationAggregator.aggregate(segment, options);
+            long parsed = System.nanoTime();
+            exchange.getResponseHeaders().add("Server-Timing", "map;dur=" + millis(mapped - start) + ", parse;dur=" + millis(parsed - mapped));
+            respond(exchange, 200, result.toString());
+            System.err.println(file + ": " + result.size() + " stations, map " + millis(mapped - start) + " ms, parse " + millis(parsed - mapped) + " ms");
+        }
+        catch (IOException | RuntimeException e) {
+            respond(exchange, 500, e.toString());
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the file mapped as one segment, mapping it again if it changed since the last query.
+     */
+    private MemorySegment map(Path file) throws IOException {
+        Path key = file.toRealPath();
+        long size = Files.size(key);
+        FileTime lastModified = Files.getLastModifiedTime(key);
+        MappedFile mappedFile = mapped.get(key);
+        if (mappedFile != null && mappedFile.size() == size && mappedFile.lastModified().equals(lastModified)) {
+            return mappedFile.segment();
+        }
+        if (mappedFile != null) {
+            mapped.remove(key).arena().close();
+        }
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            mappedFile = new MappedFile(arena, channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena), size, lastModified);
+        }
+        catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+        mapped.put(key, mappedFile);
+        Iterator<MappedFile> leastRecent = mapped.values().iterator();
+        while (mapped.size() > MAX_MAPPED_FILES) {
+            leastRecent.next().arena().close();
+            leastRecent.remove();
+        }
+        return mappedFile.segment();
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0 && URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8).equals(name)) {
+                return URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+}
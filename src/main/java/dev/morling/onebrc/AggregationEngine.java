@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * One {@code CalculateAverage_*} implementation, run on any file in-process instead of through its {@code main}
+ * (which reads {@code ./measurements.txt} and prints to stdout), so that one JVM can warm up and compare several of
+ * them on the same inputs. Implementations are found through {@link AggregationEngines}, which loads them as
+ * {@link java.util.ServiceLoader} providers.
+ */
+public interface AggregationEngine {
+
+    /**
+     * Returns the name of the implementation, the {@code <fork>} of {@code CalculateAverage_<fork>}.
+     */
+    String name();
+
+    /**
+     * Aggregates every line of the file. Runs may follow one another, but not overlap.
+     */
+    StationAggregator.Result run(Path input) throws IOException;
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link AggregationEngine}s registered in {@code META-INF/services/dev.morling.onebrc.AggregationEngine}.
+ * Each adapter is a nested {@code Engine} class of the implementation it runs.
+ */
+public final class AggregationEngines {
+
+    private AggregationEngines() {
+    }
+
+    /**
+     * Returns every registered engine, sorted by name.
+     */
+    public static List<AggregationEngine> all() {
+        return ServiceLoader.load(AggregationEngine.class).stream()
+                .map(ServiceLoader.Provider::get)
+                .sorted(Comparator.comparing(AggregationEngine::name))
+                .toList();
+    }
+
+    /**
+     * Returns the engine with the given name.
+     *
+     * @throws IllegalArgumentException if there is none
+     */
+    public static AggregationEngine named(String name) {
+        List<AggregationEngine> engines = all();
+        return engines.stream()
+                .filter(engine -> engine.name().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No engine " + name + ", expected one of "
+                        + engines.stream().map(AggregationEngine::name).toList()));
+    }
+}
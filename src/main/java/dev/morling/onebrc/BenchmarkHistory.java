@@ -0,0 +1,411 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timings {@link BenchmarkRunner} measured, one JSON object per line and per target in
+ * {@code benchmark-history.jsonl}, keyed by the git commit, the target, the dataset (the input's file name and size)
+ * and the JVM flags. Comparing two commits tells which targets got significantly slower:
+ *
+ * <pre>
+ * ./benchmark_compare.sh 1d71d0f HEAD
+ * </pre>
+ *
+ * Measured runs of one key are pooled across benchmarks and compared with a two-sided Mann-Whitney U test, exact
+ * without ties and the normal approximation otherwise. A key is a regression if it is slower by median at
+ * significance {@code --alpha} (default 0.05), which takes at least 4 runs per commit. The exit status is 1 if any
+ * key regressed.
+ */
+public final class BenchmarkHistory {
+
+    static final Path DEFAULT_HISTORY = Path.of("benchmark-history.jsonl");
+    static final double DEFAULT_ALPHA = 0.05;
+    // commits with changes that are not committed yet
+    static final String DIRTY = "+dirty";
+    private static final int MAX_EXACT_RUNS = 50;
+
+    /**
+     * The measured runs of one target in one benchmark.
+     */
+    record Entry(String timestamp, String commit, String target, String dataset, String jvmFlags, double[] millis) {
+
+        String key() {
+            return target + " | " + dataset + " | " + jvmFlags;
+        }
+    }
+
+    private BenchmarkHistory() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path history = DEFAULT_HISTORY;
+        double alpha = DEFAULT_ALPHA;
+        List<String> commits = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--history=")) {
+                history = Path.of(arg.substring("--history=".length()));
+            }
+            else if (arg.startsWith("--alpha=")) {
+                alpha = Double.parseDouble(arg.substring("--alpha=".length()));
+            }
+            else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+            else {
+                commits.add(arg);
+            }
+        }
+        if (commits.size() != 2) {
+            throw new IllegalArgumentException("Usage: BenchmarkHistory [--history=<file>] [--alpha=<level>] <base commit> <commit>");
+        }
+        List<Entry> entries = read(history);
+        String base = resolve(commits.get(0));
+        String head = resolve(commits.get(1));
+        System.exit(compare(entries, base, head, alpha) ? 1 : 0);
+    }
+
+    /**
+     * Prints a Markdown table of every key measured at both commits and returns whether any regressed.
+     */
+    static boolean compare(List<Entry> entries, String base, String head, double alpha) {
+        Map<String, double[]> before = pooled(entries, base);
+        Map<String, double[]> after = pooled(entries, head);
+        System.out.println("| Target | Dataset | JVM flags | Runs | Median before (s) | Median after (s) | Change | p | |");
+        System.out.println("|---|---|---|---:|---:|---:|---:|---:|---|");
+        boolean regressed = false;
+        for (Map.Entry<String, double[]> key : after.entrySet()) {
+            double[] a = before.get(key.getKey());
+            if (a == null) {
+                continue;
+            }
+            double[] b = key.getValue();
+            double medianBefore = BenchmarkRunner.Summary.of(a).median();
+            double medianAfter = BenchmarkRunner.Summary.of(b).median();
+            double p = mannWhitneyP(a, b);
+            String verdict = "";
+            if (p < alpha) {
+                verdict = medianAfter > medianBefore ? "REGRESSION" : "improvement";
+                regressed |= medianAfter > medianBefore;
+            }
+            String[] parts = key.getKey().split(" \\| ", 3);
+            System.out.printf(Locale.ROOT, "| %s | %s | %s | %d / %d | %.3f | %.3f | %+.1f%% | %.4f | %s |%n", parts[0], parts[1], parts[2], a.length, b.length,
+                    medianBefore / 1000, medianAfter / 1000, (medianAfter / medianBefore - 1) * 100, p, verdict);
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                System.err.println("Only measured at " + base + ": " + key);
+            }
+        }
+        for (String key : after.keySet()) {
+            if (!before.containsKey(key)) {
+                System.err.println("Only measured at " + head + ": " + key);
+            }
+        }
+        return regressed;
+    }
+
+    private static Map<String, double[]> pooled(List<Entry> entries, String commit) {
+        Map<String, double[]> pooled = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.commit().equals(commit)) {
+                pooled.merge(entry.key(), entry.millis(), (a, b) -> {
+                    double[] both = Arrays.copyOf(a, a.length + b.length);
+                    System.arraycopy(b, 0, both, a.length, b.length);
+                    return both;
+                });
+            }
+        }
+        if (pooled.isEmpty()) {
+            throw new IllegalArgumentException("Nothing measured at " + commit);
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns the two-sided p-value of the Mann-Whitney U test that both samples come from the same distribution.
+     */
+    static double mannWhitneyP(double[] a, double[] b) {
+        int n1 = a.length;
+        int n2 = b.length;
+        double[] all = new double[n1 + n2];
+        System.arraycopy(a, 0, all, 0, n1);
+        System.arraycopy(b, 0, all, n1, n2);
+        double[] sorted = all.clone();
+        Arrays.sort(sorted);
+        // midranks, and the sum of t^3 - t over ties for the variance
+        double rankSumA = 0;
+        for (int i = 0; i < n1; i++) {
+            rankSumA += rank(sorted, a[i]);
+        }
+        double ties = 0;
+        for (int i = 0; i < sorted.length;) {
+            int j = i;
+            while (j < sorted.length && sorted[j] == sorted[i]) {
+                j++;
+            }
+            double t = j - i;
+            ties += t * t * t - t;
+            i = j;
+        }
+        double u = rankSumA - n1 * (n1 + 1) / 2.0;
+        double mean = n1 * (double) n2 / 2;
+        if (ties == 0 && n1 <= MAX_EXACT_RUNS && n2 <= MAX_EXACT_RUNS) {
+            double[] distribution = uDistribution(n1, n2);
+            // P(U <= min(u, n1 n2 - u)), doubled
+            int tail = (int) Math.min(u, n1 * n2 - u);
+            double p = 0;
+            for (int k = 0; k <= tail; k++) {
+                p += distribution[k];
+            }
+            return Math.min(1, 2 * p);
+        }
+        double n = n1 + n2;
+        double variance = n1 * (double) n2 / 12 * ((n + 1) - ties / (n * (n - 1)));
+        if (variance == 0) {
+            return 1;
+        }
+        double z = (Math.abs(u - mean) - 0.5) / Math.sqrt(variance);
+        return Math.min(1, 2 * (1 - normalCdf(Math.max(0, z))));
+    }
+
+    private static double rank(double[] sorted, double value) {
+        int first = 0;
+        while (sorted[first] < value) {
+            first++;
+        }
+        int last = first;
+        while (last + 1 < sorted.length && sorted[last + 1] == value) {
+            last++;
+        }
+        return (first + last) / 2.0 + 1;
+    }
+
+    /**
+     * Returns P(U = k) for k in [0, n1 n2] without ties, counting the arrangements with f(i, j, k) = f(i - 1, j, k - j)
+     * + f(i, j - 1, k).
+     */
+    private static double[] uDistribution(int n1, int n2) {
+        // counts[j][k] for the current i, as doubles since they outgrow longs
+        double[][] counts = new double[n2 + 1][];
+        for (int j = 0; j <= n2; j++) {
+            counts[j] = new double[n1 * n2 + 1];
+            counts[j][0] = 1;
+        }
+        for (int i = 1; i <= n1; i++) {
+            double[][] next = new double[n2 + 1][];
+            for (int j = 0; j <= n2; j++) {
+                next[j] = new double[n1 * n2 + 1];
+                for (int k = 0; k <= i * j; k++) {
+                    next[j][k] = (k >= j ? counts[j][k - j] : 0) + (j > 0 ? next[j - 1][k] : 0);
+                }
+            }
+            counts = next;
+        }
+        double[] distribution = counts[n2];
+        double total = Arrays.stream(distribution).sum();
+        for (int k = 0; k < distribution.length; k++) {
+            distribution[k] /= total;
+        }
+        return distribution;
+    }
+
+    /**
+     * The standard normal CDF, by the Abramowitz and Stegun 7.1.26 approximation of erf (within 1.5e-7).
+     */
+    private static double normalCdf(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? (1 + erf) / 2 : (1 - erf) / 2;
+    }
+
+    /**
+     * Returns the commit checked out in the working directory, with {@link #DIRTY} appended if anything tracked
+     * changed, or {@code unknown} outside of a git repository.
+     */
+    static String currentCommit() throws IOException, InterruptedException {
+        String commit = git("rev-parse", "HEAD");
+        if (commit == null) {
+            return "unknown";
+        }
+        String changes = git("status", "--porcelain", "--untracked-files=no");
+        return changes == null || changes.isEmpty() ? commit : commit + DIRTY;
+    }
+
+    /**
+     * Resolves a revision such as {@code HEAD~1} or an abbreviated hash to the commit recorded in the history,
+     * keeping a {@link #DIRTY} suffix.
+     */
+    static String resolve(String revision) throws IOException, InterruptedException {
+        boolean dirty = revision.endsWith(DIRTY);
+        String rev = dirty ? revision.substring(0, revision.length() - DIRTY.length()) : revision;
+        String commit = git("rev-parse", "--verify", "--quiet", rev + "^{commit}");
+        return (commit != null ? commit : rev) + (dirty ? DIRTY : "");
+    }
+
+    private static String git(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        Process process;
+        try {
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        }
+        catch (IOException e) {
+            // no git
+            return null;
+        }
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).strip();
+        if (!process.waitFor(1, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            return null;
+        }
+        return process.exitValue() == 0 ? output : null;
+    }
+
+    static void append(Path history, List<Entry> entries) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Entry entry : entries) {
+            lines.append("{\"timestamp\": ").append(BenchmarkRunner.quote(entry.timestamp()))
+                    .append(", \"commit\": ").append(BenchmarkRunner.quote(entry.commit()))
+                    .append(", \"target\": ").append(BenchmarkRunner.quote(entry.target()))
+                    .append(", \"dataset\": ").append(BenchmarkRunner.quote(entry.dataset()))
+                    .append(", \"jvmFlags\": ").append(BenchmarkRunner.quote(entry.jvmFlags()))
+                    .append(", \"millis\": [");
+            for (int i = 0; i < entry.millis().length; i++) {
+                lines.append(i == 0 ? "" : ", ").append(BenchmarkRunner.number(entry.millis()[i]));
+            }
+            lines.append("]}\n");
+        }
+        Files.writeString(history, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    static List<Entry> read(Path history) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        int number = 0;
+        for (String line : Files.readAllLines(history, StandardCharsets.UTF_8)) {
+            number++;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                Map<String, Object> fields = new JsonLine(line).object();
+                @SuppressWarnings("unchecked")
+                List<Double> millis = (List<Double>) fields.get("millis");
+                entries.add(new Entry((String) fields.get("timestamp"), (String) fields.get("commit"), (String) fields.get("target"),
+                        (String) fields.get("dataset"), (String) fields.get("jvmFlags"), millis.stream().mapToDouble(Double::doubleValue).toArray()));
+            }
+            catch (RuntimeException e) {
+                throw new IOException(history + ":" + number + ": can't read " + line, e);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Just enough JSON for the lines {@link #append} writes: one object of strings and arrays of numbers.
+     */
+    private static final class JsonLine {
+        private final String json;
+        private int pos;
+
+        JsonLine(String json) {
+            this.json = json;
+        }
+
+        Map<String, Object> object() {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            expect('{');
+            while (peek() != '}') {
+                if (!fields.isEmpty()) {
+                    expect(',');
+                }
+                String name = string();
+                expect(':');
+                fields.put(name, peek() == '"' ? string() : numbers());
+            }
+            expect('}');
+            return fields;
+        }
+
+        private List<Double> numbers() {
+            List<Double> numbers = new ArrayList<>();
+            expect('[');
+            while (peek() != ']') {
+                if (!numbers.isEmpty()) {
+                    expect(',');
+                }
+                peek();
+                int start = pos;
+                while (pos < json.length() && "+-.0123456789eE".indexOf(json.charAt(pos)) >= 0) {
+                    pos++;
+                }
+                numbers.add(Double.parseDouble(json.substring(start, pos)));
+            }
+            expect(']');
+            return numbers;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            for (char c; (c = json.charAt(pos++)) != '"';) {
+                if (c == '\\') {
+                    c = json.charAt(pos++);
+                    switch (c) {
+                        case 'n' -> value.append('\n');
+                        case 't' -> value.append('\t');
+                        case 'u' -> {
+                            value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                            pos += 4;
+                        }
+                        default -> value.append(c);
+                    }
+                }
+                else {
+                    value.append(c);
+                }
+            }
+            return value.toString();
+        }
+
+        private char peek() {
+            while (Character.isWhitespace(json.charAt(pos))) {
+                pos++;
+            }
+            return json.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + pos);
+            }
+            pos++;
+        }
+    }
+}
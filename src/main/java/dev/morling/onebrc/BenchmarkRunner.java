@@ -0,0 +1,560 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Times forks ({@code calculate_average_<fork>.sh}) and in-process engines ({@code engine:<name>}, see
+ * {@link AggregationEngines}) with nothing but the JDK running it, where {@code evaluate.sh} needs hyperfine, jq, bc
+ * and SDKMAN:
+ *
+ * <pre>
+ * ./benchmark.sh --warmup=1 --runs=10 thomaswue sachinhejip engine:sachinhejip
+ * </pre>
+ *
+ * Forks run from the working directory, so on {@code ./measurements.txt}, with this JDK first on the {@code PATH}
+ * and pinned with {@code taskset} (to CPUs 0-7 like {@code evaluate.sh} does, if {@code taskset} is installed).
+ * Engines run on {@code --input} in this JVM, which is pinned the same way. A run that takes longer than the timeout
+ * is killed and ends its target's runs. Each target's output must match the {@code .out} file next to the input,
+ * or if there is none the output of the first target, up to a tenth on the means (see {@link #sameStations}).
+ * <p>
+ * The min, median, p90, mean with its 95% confidence interval and standard deviation of the measured runs are
+ * printed as a Markdown table and written as JSON. The measured runs of the targets that passed are appended to
+ * {@code --history} (default {@code benchmark-history.jsonl}, or nowhere if empty), see {@link BenchmarkHistory}.
+ * The exit status is 1 if any target failed, timed out or had the wrong output.
+ */
+public final class BenchmarkRunner {
+
+    static final String ENGINE_PREFIX = "engine:";
+    static final int DEFAULT_WARMUP = 1;
+    static final int DEFAULT_RUNS = 5;
+    static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(300);
+    static final String DEFAULT_CPUS = "0-7";
+    static final Path MEASUREMENTS = Path.of("measurements.txt");
+    private static final String USAGE = """
+            Usage: BenchmarkRunner [--input=<file>] [--warmup=<runs>] [--runs=<runs>] [--timeout=<seconds>]
+                                   [--cpus=<taskset list>|--cpus=] [--json=<file>] [--history=<file>|--history=] [--prepare]
+                                   <fork>|engine:<name> ...""";
+
+    /**
+     * @param cpus the CPUs for {@code taskset -c}, or empty not to pin
+     * @param history the file to append the measured runs to, or null not to
+     * @param prepare whether to run {@code prepare_<fork>.sh} first, which for most forks needs SDKMAN
+     */
+    record Options(Path input, int warmup, int runs, Duration timeout, String cpus, Path json, Path history, boolean prepare) {
+    }
+
+    /**
+     * The measured runs of one target in milliseconds, and their statistics. The confidence interval is Student's
+     * t for the mean, and NaN for fewer than two runs like the standard deviation.
+     */
+    record Summary(double[] millis, double min, double median, double p90, double mean, double stddev, double ciLow, double ciHigh) {
+
+    static Summary of(double[] millis) {
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        double median = n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+        // nearest rank
+        double p90 = sorted[(int) Math.ceil(0.9 * n) - 1];
+        double mean = Arrays.stream(sorted).sum() / n;
+        double stddev = Double.NaN;
+        double ci = Double.NaN;
+        if (n > 1) {
+            stddev = Math.sqrt(Arrays.stream(sorted).map(t -> (t - mean) * (t - mean)).sum() / (n - 1));
+            ci = studentT975(n - 1) * stddev / Math.sqrt(n);
+        }
+        return new Summary(millis.clone(), sorted[0], median, p90, mean, stddev, mean - ci, mean + ci);
+    }
+
+    }
+
+    /**
+     * How one target went: status is {@code ok}, or why its runs stopped, in which case summary is null if no run
+     * was measured.
+     */
+    record Outcome(String target, String status, Summary summary) {
+    }
+
+    interface Target {
+
+        String name();
+
+        /**
+         * Runs once and returns the output.
+         */
+        String run(Options options) throws IOException, TimeoutException, InterruptedException;
+    }
+
+    private record Fork(String name) implements Target {
+
+    @Override
+    public String run(Options options) throws IOException, TimeoutException, InterruptedException {
+        return runScript("calculate_average_" + name + ".sh", options);
+    }
+
+    }
+
+    /**
+     * Runs an engine on an executor of its own, so that an engine that timed out keeps neither the next target's runs
+     * nor the engine's own from starting. A run that timed out is left to finish rather than interrupted, as an
+     * engine may release its input while its own threads still read it. It keeps competing for the CPUs with the
+     * targets after it, though.
+     */
+    record InProcess(AggregationEngine engine, ExecutorService executor) implements Target {
+
+    InProcess(AggregationEngine engine) {
+        this(engine, Executors.newSingleThreadExecutor(Thread.ofPlatform().name("benchmark-" + engine.name()).daemon().factory()));
+    }
+
+    @Override
+    public String name() {
+        return ENGINE_PREFIX + engine.name();
+    }
+
+    @Override
+    public String run(Options options) throws IOException, TimeoutException, InterruptedException {
+        Future<StationAggregator.Result> result = executor.submit(() -> engine.run(options.input()));
+        try {
+            return result.get(options.timeout().toNanos(), TimeUnit.NANOSECONDS).toString();
+        }
+        catch (TimeoutException e) {
+            // abandon the executor to the engine, whose thread is a daemon
+            result.cancel(false);
+            executor.shutdown();
+            throw e;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause()instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    }
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path input = MEASUREMENTS;
+        int warmup = DEFAULT_WARMUP;
+        int runs = DEFAULT_RUNS;
+        Duration timeout = DEFAULT_TIMEOUT;
+        String cpus = DEFAULT_CPUS;
+        Path json = Path.of("benchmark-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")) + ".json");
+        Path history = BenchmarkHistory.DEFAULT_HISTORY;
+        boolean prepare = false;
+        List<String> names = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--input=")) {
+                input = Path.of(arg.substring("--input=".length()));
+            }
+            else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+            }
+            else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(arg.substring("--runs=".length()));
+            }
+            else if (arg.startsWith("--timeout=")) {
+                timeout = Duration.ofSeconds(Long.parseLong(arg.substring("--timeout=".length())));
+            }
+            else if (arg.startsWith("--cpus=")) {
+                cpus = arg.substring("--cpus=".length());
+            }
+            else if (arg.startsWith("--json=")) {
+                json = Path.of(arg.substring("--json=".length()));
+            }
+            else if (arg.startsWith("--history=")) {
+                String file = arg.substring("--history=".length());
+                history = file.isEmpty() ? null : Path.of(file);
+            }
+            else if (arg.equals("--prepare")) {
+                prepare = true;
+            }
+            else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option " + arg + "\n" + USAGE);
+            }
+            else {
+                names.add(arg);
+            }
+        }
+        if (names.isEmpty() || warmup < 0 || runs < 1) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        if (!Files.isRegularFile(input)) {
+            throw new IllegalArgumentException("No such file " + input);
+        }
+        if (!cpus.isEmpty() && !onPath("taskset")) {
+            System.err.println("taskset not found, not pinning to CPUs " + cpus);
+            cpus = "";
+        }
+        Options options = new Options(input, warmup, runs, timeout, cpus, json, history, prepare);
+
+        List<Outcome> outcomes = run(names, options);
+        System.out.print(markdown(outcomes));
+        Files.writeString(json, json(outcomes, options), StandardCharsets.UTF_8);
+        System.err.println("Wrote " + json);
+        if (history != null) {
+            List<BenchmarkHistory.Entry> entries = historyEntries(outcomes, options);
+            BenchmarkHistory.append(history, entries);
+            System.err.println("Appended " + entries.size() + " results to " + history);
+        }
+        // threads of an engine that timed out may still be running
+        System.exit(outcomes.stream().allMatch(outcome -> outcome.status().equals("ok")) ? 0 : 1);
+    }
+
+    static List<Outcome> run(List<String> names, Options options) throws IOException, InterruptedException {
+        List<Target> targets = new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(ENGINE_PREFIX)) {
+                targets.add(new InProcess(AggregationEngines.named(name.substring(ENGINE_PREFIX.length()))));
+            }
+            else {
+                if (!Files.isRegularFile(Path.of("calculate_average_" + name + ".sh"))) {
+                    throw new IllegalArgumentException("No calculate_average_" + name + ".sh in the working directory");
+                }
+                if (!Files.exists(MEASUREMENTS) || !Files.isSameFile(options.input(), MEASUREMENTS)) {
+                    throw new IllegalArgumentException("Forks read ./measurements.txt, so can't be run on " + options.input());
+                }
+                targets.add(new Fork(name));
+            }
+        }
+        return measure(targets, options);
+    }
+
+    /**
+     * Runs each target in turn and returns how each went, in the same order.
+     */
+    static List<Outcome> measure(List<? extends Target> targets, Options options) throws IOException, InterruptedException {
+        if (targets.stream().anyMatch(InProcess.class::isInstance) && !options.cpus().isEmpty()) {
+            // threads inherit the affinity of the thread starting them
+            try {
+                exec(List.of("taskset", "-a", "-p", "-c", options.cpus(), Long.toString(ProcessHandle.current().pid())), options.timeout());
+            }
+            catch (TimeoutException e) {
+                throw new IOException("Can't pin to CPUs " + options.cpus(), e);
+            }
+        }
+
+        String fileName = options.input().getFileName().toString();
+        Path expectedFile = options.input().resolveSibling(fileName.replaceFirst("\\.txt$", "") + ".out");
+        String expected = Files.isRegularFile(expectedFile) ? Files.readString(expectedFile, StandardCharsets.UTF_8).strip() : null;
+        String expectedFrom = expectedFile.toString();
+
+        List<Outcome> outcomes = new ArrayList<>();
+        for (Target target : targets) {
+            if (options.prepare() && target instanceof Fork fork && Files.isRegularFile(Path.of("prepare_" + fork.name() + ".sh"))) {
+                try {
+                    runScript("prepare_" + fork.name() + ".sh", options);
+                }
+                catch (IOException | TimeoutException e) {
+                    outcomes.add(new Outcome(target.name(), "prepare failed: " + e.getMessage(), null));
+                    continue;
+                }
+            }
+            double[] millis = new double[options.runs()];
+            String status = "ok";
+            int measured = 0;
+            for (int i = 0; i < options.warmup() + options.runs() && status.equals("ok"); i++) {
+                long start = System.nanoTime();
+                String output;
+                try {
+                    output = target.run(options).strip();
+                }
+                catch (TimeoutException e) {
+                    status = "timed out after " + options.timeout().toSeconds() + " s";
+                    break;
+                }
+                catch (IOException e) {
+                    status = "failed: " + e.getMessage();
+                    break;
+                }
+                long elapsed = System.nanoTime() - start;
+                if (expected == null) {
+                    expected = output;
+                    expectedFrom = target.name();
+                }
+                if (!output.equals(expected) && !sameStations(output, expected)) {
+                    status = "output differs from " + expectedFrom;
+                }
+                if (i >= options.warmup()) {
+                    millis[measured++] = elapsed / 1e6;
+                }
+                System.err.printf(Locale.ROOT, "%s %s %d: %.1f ms%n", target.name(), i < options.warmup() ? "warm-up" : "run",
+                        i < options.warmup() ? i + 1 : measured, elapsed / 1e6);
+            }
+            outcomes.add(new Outcome(target.name(), status, measured > 0 ? Summary.of(Arrays.copyOf(millis, measured)) : null));
+            if (target instanceof InProcess inProcess) {
+                inProcess.executor().shutdown();
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * Runs a script of the working directory with bash, this JDK first on the {@code PATH} and pinned to the CPUs,
+     * and returns its output.
+     */
+    private static String runScript(String script, Options options) throws IOException, TimeoutException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        if (!options.cpus().isEmpty()) {
+            command.addAll(List.of("taskset", "-c", options.cpus()));
+        }
+        command.addAll(List.of("bash", "./" + script));
+        return exec(command, options.timeout());
+    }
+
+    /**
+     * Runs the command, killing it and its descendants if it takes longer than the timeout, and returns its output.
+     *
+     * @throws IOException if it exits with a non-zero status, with the end of its stderr
+     */
+    private static String exec(List<String> command, Duration timeout) throws IOException, TimeoutException, InterruptedException {
+        Path out = Files.createTempFile("benchmark", ".out");
+        Path err = Files.createTempFile("benchmark", ".err");
+        try {
+            ProcessBuilder builder = new ProcessBuilder(command).redirectOutput(out.toFile()).redirectError(err.toFile());
+            builder.environment().merge("PATH", Path.of(System.getProperty("java.home"), "bin").toString(),
+                    (path, javaBin) -> javaBin + File.pathSeparator + path);
+            Process process = builder.start();
+            if (!process.waitFor(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly();
+                throw new TimeoutException(String.join(" ", command));
+            }
+            if (process.exitValue() != 0) {
+                String stderr = Files.readString(err, StandardCharsets.UTF_8).strip();
+                throw new IOException("exit status " + process.exitValue() + (stderr.isEmpty() ? "" : ", " + stderr.substring(Math.max(0, stderr.length() - 500))));
+            }
+            return Files.readString(out, StandardCharsets.UTF_8);
+        }
+        finally {
+            Files.deleteIfExists(out);
+            Files.deleteIfExists(err);
+        }
+    }
+
+    /**
+     * Whether both outputs have the same stations with the same min and max, and means at most a tenth apart. The
+     * reference rounds a double mean, which at an exact {@code .x5} can land a tenth below the mean rounded from the
+     * sum in tenths, as in the {@code .out} files {@link DatasetMatrix} generates.
+     */
+    static boolean sameStations(String output, String expected) {
+        Map<String, long[]> actual = stations(output);
+        Map<String, long[]> wanted = stations(expected);
+        if (actual == null || wanted == null || !actual.keySet().equals(wanted.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, long[]> station : wanted.entrySet()) {
+            long[] a = actual.get(station.getKey());
+            long[] w = station.getValue();
+            if (a[0] != w[0] || Math.abs(a[1] - w[1]) > 1 || a[2] != w[2]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns min, mean and max in tenths by station, or null if {@code output} isn't a result.
+     */
+    private static Map<String, long[]> stations(String output) {
+        if (!output.startsWith("{") || !output.endsWith("}")) {
+            return null;
+        }
+        Map<String, long[]> stations = new HashMap<>();
+        String body = output.substring(1, output.length() - 1);
+        if (body.isEmpty()) {
+            return stations;
+        }
+        for (String entry : body.split("(?<=[0-9]), ")) {
+            int equals = entry.lastIndexOf('=');
+            String[] values = entry.substring(equals + 1).split("/");
+            if (equals < 0 || values.length != 3) {
+                return null;
+            }
+            long[] tenths = new long[3];
+            try {
+                for (int i = 0; i < 3; i++) {
+                    tenths[i] = Math.round(Double.parseDouble(values[i]) * 10);
+                }
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+            if (stations.put(entry.substring(0, equals), tenths) != null) {
+                return null;
+            }
+        }
+        return stations;
+    }
+
+    private static boolean onPath(String command) {
+        String path = System.getenv("PATH");
+        return path != null && Arrays.stream(path.split(File.pathSeparator)).anyMatch(dir -> Files.isExecutable(Path.of(dir, command)));
+    }
+
+    /**
+     * Returns the 97.5th percentile of Student's t distribution, so that mean ± t * stddev / sqrt(n) covers 95%.
+     * Tabulated up to 30 degrees of freedom, beyond which the Cornish-Fisher expansion is within 0.001.
+     */
+    static double studentT975(int degreesOfFreedom) {
+        final double[] table = { 12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120,
+                2.110, 2.101, 2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+        if (degreesOfFreedom <= table.length) {
+            return table[degreesOfFreedom - 1];
+        }
+        double z = 1.959964;
+        double df = degreesOfFreedom;
+        return z + (z * z * z + z) / (4 * df) + (5 * Math.pow(z, 5) + 16 * z * z * z + 3 * z) / (96 * df * df);
+    }
+
+    static String markdown(List<Outcome> outcomes) {
+        StringBuilder table = new StringBuilder();
+        table.append("| Target | Runs | Min (s) | Median (s) | p90 (s) | Mean ± 95% CI (s) | Stddev (s) | Status |\n");
+        table.append("|---|---:|---:|---:|---:|---:|---:|---|\n");
+        for (Outcome outcome : outcomes) {
+            Summary s = outcome.summary();
+            if (s == null) {
+                table.append(String.format(Locale.ROOT, "| %s | 0 | | | | | | %s |%n", outcome.target(), outcome.status()));
+                continue;
+            }
+            String ci = Double.isNaN(s.stddev()) ? "" : String.format(Locale.ROOT, " ± %.3f", (s.ciHigh() - s.ciLow()) / 2000);
+            table.append(String.format(Locale.ROOT, "| %s | %d | %.3f | %.3f | %.3f | %.3f%s | %s | %s |%n", outcome.target(), s.millis().length,
+                    s.min() / 1000, s.median() / 1000, s.p90() / 1000, s.mean() / 1000, ci,
+                    Double.isNaN(s.stddev()) ? "" : String.format(Locale.ROOT, "%.3f", s.stddev() / 1000), outcome.status()));
+        }
+        return table.toString();
+    }
+
+    static String json(List<Outcome> outcomes, Options options) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"input\": ").append(quote(options.input().toString())).append(",\n");
+        json.append("  \"warmup\": ").append(options.warmup()).append(",\n");
+        json.append("  \"runs\": ").append(options.runs()).append(",\n");
+        json.append("  \"timeoutSeconds\": ").append(options.timeout().toSeconds()).append(",\n");
+        json.append("  \"cpus\": ").append(quote(options.cpus())).append(",\n");
+        json.append("  \"java\": ").append(quote(System.getProperty("java.vm.name") + " " + Runtime.version())).append(",\n");
+        json.append("  \"results\": [");
+        for (int i = 0; i < outcomes.size(); i++) {
+            Outcome outcome = outcomes.get(i);
+            Summary s = outcome.summary();
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    { \"target\": ").append(quote(outcome.target())).append(", \"status\": ").append(quote(outcome.status()));
+            if (s != null) {
+                json.append(", \"millis\": [");
+                for (int run = 0; run < s.millis().length; run++) {
+                    json.append(run == 0 ? "" : ", ").append(number(s.millis()[run]));
+                }
+                json.append("], \"minMillis\": ").append(number(s.min()))
+                        .append(", \"medianMillis\": ").append(number(s.median()))
+                        .append(", \"p90Millis\": ").append(number(s.p90()))
+                        .append(", \"meanMillis\": ").append(number(s.mean()))
+                        .append(", \"stddevMillis\": ").append(number(s.stddev()))
+                        .append(", \"ci95Millis\": [").append(number(s.ciLow())).append(", ").append(number(s.ciHigh())).append("]");
+            }
+            json.append(" }");
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Returns the runs of the targets that passed, at the current commit. The dataset is the name and size of the
+     * file the input links to, and the JVM flags are those of this JVM for engines and the first {@code JAVA_OPTS}
+     * the script sets for forks, with {@code JDK_JAVA_OPTIONS} if set.
+     */
+    static List<BenchmarkHistory.Entry> historyEntries(List<Outcome> outcomes, Options options) throws IOException, InterruptedException {
+        String timestamp = OffsetDateTime.now().truncatedTo(ChronoUnit.SECONDS).toString();
+        String commit = BenchmarkHistory.currentCommit();
+        Path input = options.input().toRealPath();
+        String dataset = input.getFileName() + ":" + Files.size(input);
+        List<BenchmarkHistory.Entry> entries = new ArrayList<>();
+        for (Outcome outcome : outcomes) {
+            if (!outcome.status().equals("ok") || outcome.summary() == null) {
+                continue;
+            }
+            String flags;
+            if (outcome.target().startsWith(ENGINE_PREFIX)) {
+                flags = String.join(" ", ManagementFactory.getRuntimeMXBean().getInputArguments());
+            }
+            else {
+                flags = Files.readAllLines(Path.of("calculate_average_" + outcome.target() + ".sh")).stream()
+                        .map(String::strip)
+                        .filter(line -> line.startsWith("JAVA_OPTS=\""))
+                        .map(line -> line.substring("JAVA_OPTS=\"".length(), line.lastIndexOf('"')))
+                        .findFirst()
+                        .orElse("");
+                String jdkOptions = System.getenv("JDK_JAVA_OPTIONS");
+                if (jdkOptions != null && !jdkOptions.isBlank()) {
+                    flags = (flags + " " + jdkOptions.strip()).strip();
+                }
+            }
+            entries.add(new BenchmarkHistory.Entry(timestamp, commit, outcome.target(), dataset, flags, outcome.summary().millis()));
+        }
+        return entries;
+    }
+
+    static String number(double value) {
+        return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    }
+                    else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -24,6 +24,8 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -32,11 +34,9 @@ import java.util.concurrent.atomic.AtomicReference;
 public class CalculateAverage_artsiomkorzun {
 
     private static final Path FILE = Path.of("./measurements.txt");
-    private static final MemorySegment MAPPED_FILE = map(FILE);
 
     private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
     private static final int SEGMENT_SIZE = 32 * 1024 * 1024;
-    private static final int SEGMENT_COUNT = (int) ((MAPPED_FILE.byteSize() + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
     private static final int SEGMENT_OVERLAP = 1024;
     private static final long COMMA_PATTERN = pattern(';');
     private static final long DOT_BITS = 0x10101000;
@@ -68,27 +68,96 @@ public class CalculateAverage_artsiomkorzun {
     }
 
     private static void execute() throws Exception {
+        Map<String, Aggregate> aggregates = aggregate(map(FILE, Arena.global()));
+        System.out.println(text(aggregates));
+    }
+
+    private static Map<String, Aggregate> aggregate(MemorySegment file) throws InterruptedException {
         AtomicInteger counter = new AtomicInteger();
         AtomicReference<Aggregates> result = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
         Aggregator[] aggregators = new Aggregator[PARALLELISM];
 
         for (int i = 0; i < aggregators.length; i++) {
-            aggregators[i] = new Aggregator(counter, result);
+            aggregators[i] = new Aggregator(file, counter, result, failure);
             aggregators[i].start();
         }
 
-        for (int i = 0; i < aggregators.length; i++) {
-            aggregators[i].join();
+        try {
+            for (int i = 0; i < aggregators.length; i++) {
+                aggregators[i].join();
+            }
+        }
+        catch (InterruptedException e) {
+            stop(aggregators);
+            free(result.get());
+            throw e;
         }
 
-        Map<String, Aggregate> aggregates = result.get().aggregate();
-        System.out.println(text(aggregates));
+        Aggregates aggregates = result.get();
+        if (failure.get() != null) {
+            free(aggregates);
+            throw new IllegalStateException(failure.get().getMessage(), failure.get());
+        }
+        try {
+            return aggregates.aggregate();
+        }
+        finally {
+            aggregates.free();
+        }
+    }
+
+    // the aggregators read the file until they stop, so it can only be unmapped after they did
+    private static void stop(Aggregator[] aggregators) {
+        for (Aggregator aggregator : aggregators) {
+            aggregator.interrupt();
+        }
+        for (Aggregator aggregator : aggregators) {
+            while (aggregator.isAlive()) {
+                try {
+                    aggregator.join();
+                }
+                catch (InterruptedException e) {
+                    // keep waiting, the caller is already being interrupted
+                }
+            }
+        }
+    }
+
+    private static void free(Aggregates aggregates) {
+        if (aggregates != null) {
+            aggregates.free();
+        }
+    }
+
+    /**
+     * Runs this implementation through {@link AggregationEngine}.
+     */
+    public static final class Engine implements AggregationEngine {
+
+        @Override
+        public String name() {
+            return "artsiomkorzun";
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) {
+            List<StationAggregator.Station> stations = new ArrayList<>();
+            try (Arena arena = Arena.ofShared()) {
+                aggregate(map(input, arena)).forEach((name, a) -> stations.add(StationAggregator.Station.ofTenths(name, a.min, a.sum, a.cnt, a.max)));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return new StationAggregator.Result(stations);
+        }
     }
 
-    private static MemorySegment map(Path file) {
+    private static MemorySegment map(Path file, Arena arena) {
         try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
             long size = channel.size();
-            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size, Arena.global());
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
         }
         catch (Throwable e) {
             throw new RuntimeException(e);
@@ -142,20 +211,27 @@ public class CalculateAverage_artsiomkorzun {
         private static final int ENTRIES = 64 * 1024;
         private static final int SIZE = 32 * ENTRIES;
 
+        private final long address;
         private final long pointer;
+        private int size;
 
         public Aggregates() {
-            long address = UNSAFE.allocateMemory(SIZE + 8096);
+            address = UNSAFE.allocateMemory(SIZE + 8096);
             pointer = (address + 4095) & (~4095);
             UNSAFE.setMemory(pointer, SIZE, (byte) 0);
         }
 
+        public void free() {
+            UNSAFE.freeMemory(address);
+        }
+
         public void add(long reference, int length, int hash, int value) {
             for (int offset = offset(hash);; offset = next(offset)) {
                 long address = pointer + offset;
                 long ref = UNSAFE.getLong(address);
 
                 if (ref == 0) {
+                    claim();
                     alloc(reference, length, hash, value, address);
                     break;
                 }
@@ -192,6 +268,7 @@ public class CalculateAverage_artsiomkorzun {
                     long ref = UNSAFE.getLong(address);
 
                     if (ref == 0) {
+                        claim();
                         UNSAFE.copyMemory(rightAddress, address, 32);
                         break;
                     }
@@ -238,6 +315,13 @@ public class CalculateAverage_artsiomkorzun {
             return set;
         }
 
+        // a full table has no empty entry to end the probing for a new station, which would then never end
+        private void claim() {
+            if (++size == ENTRIES) {
+                throw new IllegalStateException("More than " + (ENTRIES - 1) + " stations");
+            }
+        }
+
         private static void alloc(long reference, int length, int hash, int value, long address) {
             UNSAFE.putLong(address, reference);
             UNSAFE.putInt(address + 8, hash);
@@ -279,23 +363,39 @@ public class CalculateAverage_artsiomkorzun {
 
     private static class Aggregator extends Thread {
 
+        private final MemorySegment file;
+        private final int segmentCount;
         private final AtomicInteger counter;
         private final AtomicReference<Aggregates> result;
+        private final AtomicReference<Throwable> failure;
 
-        public Aggregator(AtomicInteger counter, AtomicReference<Aggregates> result) {
+        public Aggregator(MemorySegment file, AtomicInteger counter, AtomicReference<Aggregates> result, AtomicReference<Throwable> failure) {
             super("aggregator");
+            this.file = file;
+            this.segmentCount = (int) ((file.byteSize() + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
             this.counter = counter;
             this.result = result;
+            this.failure = failure;
         }
 
         @Override
         public void run() {
             Aggregates aggregates = new Aggregates();
+            try {
+                aggregate(aggregates);
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                aggregates.free();
+            }
+        }
 
-            for (int segment; (segment = counter.getAndIncrement()) < SEGMENT_COUNT;) {
+        private void aggregate(Aggregates aggregates) {
+            // an interrupted aggregator, or one whose sibling failed, stops after its current segment
+            for (int segment; !isInterrupted() && failure.get() == null && (segment = counter.getAndIncrement()) < segmentCount;) {
                 long position = (long) SEGMENT_SIZE * segment;
-                int size = (int) Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, MAPPED_FILE.byteSize() - position);
-                long address = MAPPED_FILE.address() + position;
+                int size = (int) Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, file.byteSize() - position);
+                long address = file.address() + position;
                 long limit = address + Math.min(SEGMENT_SIZE, size - 1);
 
                 if (segment > 0) {
@@ -309,7 +409,12 @@ public class CalculateAverage_artsiomkorzun {
                 Aggregates rights = result.getAndSet(null);
 
                 if (rights != null) {
-                    aggregates.merge(rights);
+                    try {
+                        aggregates.merge(rights);
+                    }
+                    finally {
+                        rights.free();
+                    }
                 }
             }
         }
@@ -18,11 +18,16 @@ package dev.morling.onebrc;
 import static java.util.stream.Collectors.*;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.stream.Collector;
+import java.util.stream.Stream;
 
 public class CalculateAverage_baseline {
 
@@ -34,13 +39,13 @@ public class CalculateAverage_baseline {
         }
     }
 
-    private static record ResultRow(double min, double mean, double max) {
-        public String toString() {
-            return round(min) + "/" + round(mean) + "/" + round(max);
+    private static record ResultRow(double min, double mean, double max, long count) {
+        private void write(String station, ResultWriter out) {
+            out.add(station.getBytes(StandardCharsets.UTF_8), tenths(min), tenths(mean), tenths(max));
         }
 
-        private double round(double value) {
-            return Math.round(value * 10.0) / 10.0;
+        private long tenths(double value) {
+            return Math.round(value * 10.0);
         }
     };
 
@@ -52,6 +57,14 @@ public class CalculateAverage_baseline {
     }
 
     public static void main(String[] args) throws IOException {
+        Map<String, ResultRow> measurements = aggregate(Paths.get(FILE));
+
+        ResultWriter out = new ResultWriter(measurements.size());
+        measurements.forEach((station, row) -> row.write(station, out));
+        out.writeLineTo(ResultWriter.standardOut());
+    }
+
+    private static Map<String, ResultRow> aggregate(Path file) throws IOException {
         // Map<String, Double> measurements1 = Files.lines(Paths.get(FILE))
         // .map(l -> l.split(";"))
         // .collect(groupingBy(m -> m[0], averagingDouble(m -> Double.parseDouble(m[1]))));
@@ -79,13 +92,36 @@ public class CalculateAverage_baseline {
                     return res;
                 },
                 agg -> {
-                    return new ResultRow(agg.min, agg.sum / agg.count, agg.max);
+                    return new ResultRow(agg.min, agg.sum / agg.count, agg.max, agg.count);
                 });
 
-        Map<String, ResultRow> measurements = new TreeMap<>(Files.lines(Paths.get(FILE))
-                .map(l -> new Measurement(l.split(";")))
-                .collect(groupingBy(m -> m.station(), collector)));
+        try (Stream<String> lines = Files.lines(file)) {
+            return new TreeMap<>(lines
+                    .map(l -> new Measurement(l.split(";")))
+                    .collect(groupingBy(m -> m.station(), collector)));
+        }
+    }
+
+    /**
+     * Runs this implementation through {@link AggregationEngine}.
+     */
+    public static final class Engine implements AggregationEngine {
 
-        System.out.println(measurements);
+        @Override
+        public String name() {
+            return "baseline";
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) throws IOException {
+            List<StationAggregator.Station> stations = new ArrayList<>();
+            aggregate(input).forEach((station, row) -> stations.add(new StationAggregator.Station(station, round(row.min), round(row.mean), round(row.max),
+                    row.count)));
+            return new StationAggregator.Result(stations);
+        }
+
+        private static double round(double value) {
+            return Math.round(value * 10.0) / 10.0;
+        }
     }
 }
@@ -29,7 +29,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 public class CalculateAverage_jbachorik {
-    private static final class Key {
+    static final class Key {
         final ByteBuffer bb;
         final int offset;
         final int len;
@@ -69,7 +69,7 @@ public class CalculateAverage_jbachorik {
         }
     }
 
-    private static final class Stats {
+    static final class Stats {
         long min;
         long max;
         long count;
@@ -106,7 +106,7 @@ public class CalculateAverage_jbachorik {
         }
     }
 
-    private static final class StatsMap {
+    static final class StatsMap {
         private static class StatsHolder {
             private final Key key;
             private final Stats stats;
@@ -225,7 +225,7 @@ public class CalculateAverage_jbachorik {
         return h;
     }
 
-    private static StatsMap processChunk(ByteBuffer bb) {
+    static StatsMap processChunk(ByteBuffer bb) {
         StatsMap map = new StatsMap();
 
         int offset = 0;
@@ -25,6 +25,8 @@ import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import jdk.incubator.vector.ByteVector;
@@ -56,7 +58,7 @@ public class CalculateAverage_merykitty {
     }
 
     // An open-address map that is specialized for this task
-    private static class PoorManMap {
+    static class PoorManMap {
 
         // 100-byte key + 4-byte hash + 4-byte size +
         // 2-byte min + 2-byte max + 8-byte sum + 8-byte count
@@ -218,7 +220,7 @@ public class CalculateAverage_merykitty {
     // This requires offset to be the start of the line and there is spare space so
     // that we have relative freedom in processing
     // It returns the offset of the next line that it needs processing
-    private static long iterate(PoorManMap aggrMap, MemorySegment data, long offset) {
+    static long iterate(PoorManMap aggrMap, MemorySegment data, long offset) {
         var line = ByteVector.fromMemorySegment(BYTE_SPECIES, data, offset, ByteOrder.nativeOrder());
 
         // Find the delimiter ';'
@@ -307,9 +309,13 @@ public class CalculateAverage_merykitty {
     }
 
     public static void main(String[] args) throws InterruptedException, IOException {
+        System.out.println(aggregate(Path.of(FILE)));
+    }
+
+    private static TreeMap<String, Aggregator> aggregate(Path path) throws InterruptedException, IOException {
         int processorCnt = Runtime.getRuntime().availableProcessors();
         var res = new TreeMap<String, Aggregator>();
-        try (var file = FileChannel.open(Path.of(FILE), StandardOpenOption.READ);
+        try (var file = FileChannel.open(path, StandardOpenOption.READ);
                 var arena = Arena.ofShared()) {
             var data = file.map(MapMode.READ_ONLY, 0, file.size(), arena);
             long chunkSize = Math.ceilDiv(data.byteSize(), processorCnt);
@@ -333,6 +339,30 @@ public class CalculateAverage_merykitty {
             }
         }
 
-        System.out.println(res);
+        return res;
+    }
+
+    /**
+     * Runs this implementation through {@link AggregationEngine}.
+     */
+    public static final class Engine implements AggregationEngine {
+
+        @Override
+        public String name() {
+            return "merykitty";
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) throws IOException {
+            List<StationAggregator.Station> stations = new ArrayList<>();
+            try {
+                aggregate(input).forEach((name, a) -> stations.add(StationAggregator.Station.ofTenths(name, a.min, a.sum, a.count, a.max)));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return new StationAggregator.Result(stations);
+        }
     }
 }
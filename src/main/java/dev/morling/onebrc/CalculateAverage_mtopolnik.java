@@ -18,6 +18,7 @@ package dev.morling.onebrc;
 import sun.misc.Unsafe;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
@@ -26,8 +27,12 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class CalculateAverage_mtopolnik {
     private static final Unsafe UNSAFE = unsafe();
@@ -81,13 +86,16 @@ public class CalculateAverage_mtopolnik {
     }
 
     static void calculate() throws Exception {
-        final File file = new File(MEASUREMENTS_TXT);
+        mergeSortAndPrint(aggregate(new File(MEASUREMENTS_TXT), Arena.global()));
+    }
+
+    private static StationStats[][] aggregate(File file, Arena arena) throws IOException, InterruptedException {
         final long length = file.length();
         final int chunkCount = Runtime.getRuntime().availableProcessors();
         final var results = new StationStats[chunkCount][];
         final var chunkStartOffsets = new long[chunkCount];
         try (var raf = new RandomAccessFile(file, "r")) {
-            final var inputBase = raf.getChannel().map(MapMode.READ_ONLY, 0, length, Arena.global()).address();
+            final var inputBase = raf.getChannel().map(MapMode.READ_ONLY, 0, length, arena).address();
             for (int i = 1; i < chunkStartOffsets.length; i++) {
                 var start = length * i / chunkStartOffsets.length;
                 raf.seek(start);
@@ -109,7 +117,44 @@ public class CalculateAverage_mtopolnik {
                 thread.join();
             }
         }
-        mergeSortAndPrint(results);
+        return results;
+    }
+
+    /**
+     * Runs this implementation through {@link AggregationEngine}.
+     */
+    public static final class Engine implements AggregationEngine {
+
+        @Override
+        public String name() {
+            return "mtopolnik";
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) throws IOException {
+            Map<String, StationStats> merged = new TreeMap<>();
+            try (Arena arena = Arena.ofShared()) {
+                for (StationStats[] chunk : aggregate(input.toFile(), arena)) {
+                    for (StationStats stats : chunk) {
+                        merged.merge(stats.name, stats, (curr, next) -> {
+                            curr.sum += next.sum;
+                            curr.count += next.count;
+                            curr.min = Integer.min(curr.min, next.min);
+                            curr.max = Integer.max(curr.max, next.max);
+                            return curr;
+                        });
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            List<StationAggregator.Station> stations = merged.values().stream()
+                    .map(s -> StationAggregator.Station.ofTenths(s.name, s.min, s.sum, s.count, s.max))
+                    .toList();
+            return new StationAggregator.Result(stations);
+        }
     }
 
     private static class ChunkProcessor implements Runnable {
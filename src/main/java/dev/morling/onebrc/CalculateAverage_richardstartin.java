@@ -231,7 +231,7 @@ public class CalculateAverage_richardstartin {
         return buffer.limit();
     }
 
-    private static int hash(byte[] bytes, int limit) {
+    static int hash(byte[] bytes, int limit) {
         int hash = 1;
         for (int i = 0; i < limit; i++) {
             hash += hash * 129 + bytes[i];
@@ -15,16 +15,44 @@
  */
 package dev.morling.onebrc;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+import sun.misc.Unsafe;
 
 public class CalculateAverage_sachinhejip {
 
@@ -53,263 +81,1366 @@ public class CalculateAverage_sachinhejip {
      * * Correct response without Xmx : 0.18.69
      * * TreeMap : 0.20.63 (2G Xmx)
      * * Node instead of TreeMap : 0.18.7
-     *  * calculating ints in loop : 0.20 :(
-     *  * buffer for name : 0.19.8
+     * * calculating ints in loop : 0.20 :(
+     * * buffer for name : 0.19.8
+     * * off-heap open addressing table instead of Node (--table=trie for the old one)
+     * * small chunks claimed from a shared counter instead of one shard per 2G
+     * * shards merge pairwise as they finish instead of polling isDone and merging into shard 0
+     * * no allocation per line, names are copied on first sight and decoded only for the sort
+     * * SWAR parser reading a long at a time, temperatures as tenths (--parser=bytes for the state machine)
+     * * --parser=vector finds delimiters a vector at a time (needs --add-modules jdk.incubator.vector)
+     * * --follow keeps the stations and only parses what was appended since the last refresh
+     * * --sidecar keeps each chunk's stations next to the file and only parses chunks that changed
+     * * StationAggregator runs this in-process on a path, a segment or a channel
+     * * the whole file mapped once as a segment, chunks start at the next line instead of re-reading an overlap
+     * * output formatted into one byte[] by ResultWriter and written at once instead of print by print
+     * * counts and sums in longs, the table's int counters widened into them every WIDEN_INTERVAL bytes
+     * * --histogram counts every temperature per station and adds the exact median, p90 and p99 to the output
+     * * --mapping=native|populate maps the file with mmap and madvise through FFM (and MAP_POPULATE), --prefetch
+     * touches pages ahead of the shards on a thread of its own
      *
      *
      * Ideas:
      * - Large memory allocation in Java 17
      */
     private static final String FILE = "./measurements.txt";
-    public static final int MAX_READ = Integer.MAX_VALUE;
-    // private static final String FILE = "/home/sachin/dev_work/java/1brc/src/test/resources/samples/measurements-20.txt";
-    // private static final String FILE = "./test.txt";
-    // public static final int MAX_READ = 20000;
-    public static final String MARKED_CITY = "Abha";
+    public static final int MIN_CHUNK_SIZE = 2 * 1024 * 1024;
+    public static final int MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    public static final int OVERLAP = 200;
+    // bytes parsed between widening a table's int counts and sums into longs. The largest sum per byte comes from
+    // "a;99.9\n", 999 tenths in 7 bytes, so an int sum can't overflow within 2^31 / 999 * 7 bytes (about 15 MB)
+    public static final int WIDEN_INTERVAL = 8 * 1024 * 1024;
+    // longest line (100 byte name, ';', "-99.9") rounded up, plus the long read after the last delimiter
+    public static final int SWAR_TAIL = 128;
+    public static final int MAX_NAME_LENGTH = 100;
+    // temperatures in tenths run from -99.9 to 99.9, so --histogram needs 1999 buckets
+    public static final int MIN_TEMPERATURE = -999;
+    public static final int HISTOGRAM_BUCKETS = 1999;
+    // --prefetch without a distance stays this far ahead of the next chunk to be claimed
+    public static final long DEFAULT_PREFETCH_DISTANCE = 64 * 1024 * 1024;
+    // how long the prefetcher waits for the shards to claim more chunks once it is far enough ahead
+    public static final long PREFETCH_PARK_NANOS = 50_000;
+    // the smallest page size, touching larger pages more than once
+    public static final int PREFETCH_STRIDE = 4096;
+
+    private static final Unsafe UNSAFE = unsafe();
+    // runs every shard but the last on a thread of its own
+    static final Executor NEW_THREADS = shard -> new Thread(shard).start();
+    private static final boolean VECTOR_MODULE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
 
-    private static List<Shard> shards = new ArrayList<>();
+    private static TABLE table = TABLE.OFF_HEAP;
+    private static PARSER parser = PARSER.SWAR;
+    private static long followInterval = 0;
+    private static boolean sidecar = false;
+    private static boolean histograms = false;
+    private static MAPPING mapping = MAPPING.CHANNEL;
+    private static long prefetchDistance = 0;
 
+    private static Unsafe unsafe() {
+        try {
+            Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return (Unsafe) theUnsafe.get(Unsafe.class);
+        }
+        catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A worker that keeps claiming the next chunk of the file from a shared counter until none are left, so
+     * faster cores simply end up processing more chunks.
+     */
     private static class Shard implements Runnable {
         private final String name;
-        private final RandomAccessFile file;
-        private final int position;
-        private final long start;
-        private final int length;
+        private final MemorySegment segment;
+        private final long from;
+        private final long to;
+        private final long chunkSize;
+        private final int chunkCount;
+        private final AtomicInteger nextChunk;
+        // when set, each chunk's stations are kept on their own and chunks that already have them are skipped
+        private final Stations[] partials;
+        private final Reduction reduction;
+        private final PARSER parser;
+        private final byte[] recordNameBytes = new byte[2000];
+        // the segment is freed once unreachable, so it is kept along with its address
+        private final MemorySegment tailSegment = Arena.ofAuto().allocate(2 * SWAR_TAIL);
+        private final long tail = tailSegment.address();
 
-        private boolean isDone = false;
-        private Node node = new Node((byte) -1); // root
+        private int chunksProcessed = 0;
+        private Stations stations;
 
-        // private TreeMap<String, Record> map = new TreeMap<>(Comparator.comparing(k -> k));
+        public Shard(String name, MemorySegment segment, long from, long to, long chunkSize, int chunkCount, AtomicInteger nextChunk,
+                     Stations[] partials, Reduction reduction) {
+            this.name = name;
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.chunkCount = chunkCount;
+            this.nextChunk = nextChunk;
+            this.partials = partials;
+            this.reduction = reduction;
+            this.parser = CalculateAverage_sachinhejip.parser;
+            this.stations = newStations();
+        }
+
+        // for feeding the shard buffers through process directly
+        Shard(String name, PARSER parser) {
+            this(name, parser, newStations());
+        }
 
-        public Shard(String name, RandomAccessFile file, long start, int position, int length) {
+        Shard(String name, PARSER parser, Stations stations) {
             this.name = name;
-            this.file = file;
-            this.start = start;
-            this.position = position;
-            this.length = length;
+            this.segment = null;
+            this.from = 0;
+            this.to = 0;
+            this.chunkSize = 0;
+            this.chunkCount = 0;
+            this.nextChunk = null;
+            this.partials = null;
+            this.reduction = null;
+            this.parser = parser;
+            this.stations = stations;
         }
 
         @Override
         public String toString() {
             return "Shard{" +
                     "name='" + name + '\'' +
-                    ", position=" + position +
-                    ", start=" + start +
-                    ", length=" + length +
-                    ", isDone=" + isDone +
+                    ", chunksProcessed=" + chunksProcessed +
                     '}';
         }
 
         @Override
         public void run() {
-            byte[] recordNameBytes = new byte[2000];
             try {
-                MappedByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
-                if (start > 0) {
-                    int i = position;
-                    for (; i >= 0; i--) {
-                        if (buf.get(i) == '\n') {
-                            break;
-                        }
-                    }
-                    if (i == -1) {
-                        throw new IllegalStateException();
-                    }
-                    buf.position(i + 1);
-                }
-                int recordStart = buf.position();
-                int nameEnd = -1;
-                // int nStart = -1;
-                // int nEnd = -1;
-                // int fStart = -1;
-                int n = 0;
-                int f = 0;
-                int mult = 1;
-                STATE state = STATE.IN_NAME;
-                Node current = node;
-                while (buf.hasRemaining()) {
-                    byte b = buf.get();
-                    // System.out.print(b + ",");
-                    // System.out.println(b + " > " + current);
-                    if (b == '\n') {
-                        if (state != STATE.IN_F) {
-                            throw new IllegalArgumentException();
-                        }
-                        // if (nameEnd == -1 || nStart == -1 || nEnd == -1 || fStart == -1) {
-                        // throw new RuntimeException();
-                        // }
-                        // current.setRecord(buf, recordStart, nameEnd, nStart, nEnd, fStart, buf.position() - 1);
-                        // byte[] bytes = new byte[nameEnd - recordStart];
-                        // buf.get(recordStart, bytes, 0, bytes.length);
-                        String recordName = new String(recordNameBytes, 0, nameEnd - recordStart);
-                        current.setRecord(recordName, mult * n, mult * f);
-                        // byte[] bytes = new byte[nameEnd - recordStart];
-                        // buf.get(recordStart, bytes, 0, bytes.length);
-                        // String recordName = new String(bytes);
-                        // Record mapRecord = map.get(recordName);
-                        // if (mapRecord != null) {
-                        // mapRecord.update(buf, nStart, nEnd, fStart, buf.position() - 1);
-                        // }
-                        // else {
-                        // Record record = new Record(recordName);
-                        // record.update(buf, nStart, nEnd, fStart, buf.position() - 1);
-                        // map.put(record.name, record);
-                        // }
-                        // if (recordName.equals(MARKED_CITY)) {
-                        // byte[] recordBytes = new byte[buf.position() - 1 - recordStart];
-                        // buf.get(recordStart, recordBytes, 0, recordBytes.length);
-                        // System.out.println("record = " + current.record + " n,f " + n + "." + f + " for recordBytes = " + new String(recordBytes));
-                        // }
-                        // records.update(name, buf, recordStart, nameEnd, nStart, nEnd, fStart, buf.position() - 1);
-                        // byte[] name = new byte[nameEnd - recordStart];
-                        // buf.get(recordStart, name, 0, name.length);
-                        recordStart = buf.position();
-                        nameEnd = -1;
-                        // nStart = -1;
-                        // nEnd = -1;
-                        // fStart = -1;
-                        n = 0;
-                        f = 0;
-                        mult = 1;
-                        state = STATE.IN_NAME;
-                        // System.out.println(new String(name) + " > " + current.record);
-                        current = node;
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                    if (partials != null && partials[chunk] != null) {
                         continue;
                     }
-                    else if (b == ';') {
-                        if (state == STATE.IN_NAME) {
-                            nameEnd = buf.position() - 1;
-                            // nStart = buf.position();
-                            state = STATE.IN_N;
-                            continue;
-                        }
-                        else {
-                            throw new IllegalArgumentException();
+                    long start = chunkStart(segment, from, to, chunkSize, chunk);
+                    long end = chunkStart(segment, from, to, chunkSize, chunk + 1);
+                    MemorySegment lines = segment.asSlice(start, end - start);
+                    if (partials != null) {
+                        Stations shardStations = stations;
+                        stations = newStations();
+                        process(lines);
+                        if (end == to) {
+                            processUnterminated(lines);
                         }
+                        partials[chunk] = new RecordStations().merge(stations);
+                        stations = shardStations;
                     }
-                    else if (b == '.') {
-                        if (state == STATE.IN_N) {
-                            // nEnd = buf.position() - 1;
-                            // fStart = buf.position();
-                            state = STATE.IN_F;
-                            continue;
+                    else {
+                        process(lines);
+                        if (end == to) {
+                            processUnterminated(lines);
                         }
                     }
-                    if (state == STATE.IN_N) {
-                        if (b == '-') {
-                            mult = -1;
-                        }
-                        else {
-                            n = n * 10 + (b - '0');
-                        }
+                    chunksProcessed++;
+                }
+                reduction.add(stations);
+            }
+            catch (Throwable e) {
+                reduction.fail(e);
+            }
+        }
+
+        /**
+         * Processes every line of {@code lines} that ends within it. The segment must start at the start of a line
+         * and be native, as the SWAR parser reads it by address. The lines are parsed {@link #WIDEN_INTERVAL} bytes
+         * at a time, widening the stations' counters after each.
+         */
+        private void process(MemorySegment lines) {
+            long start = 0;
+            while (start < lines.byteSize()) {
+                long end = chunkStart(lines, start, lines.byteSize(), WIDEN_INTERVAL, 1);
+                MemorySegment span = lines.asSlice(start, end - start);
+                switch (parser) {
+                    case BYTES -> parseBytes(span.asByteBuffer());
+                    case SWAR -> parseSwar(span.address(), span.byteSize());
+                    case VECTOR -> {
+                        long offset = VectorParser.parse(this, span);
+                        parseSwar(span.address() + offset, span.byteSize() - offset);
                     }
-                    if (state == STATE.IN_F) {
-                        f = b - '0';
+                }
+                stations.widen();
+                start = end;
+            }
+            // a segment of a buffer is freed along with the buffer, and the SWAR parser only holds on to its address
+            Reference.reachabilityFence(lines);
+        }
+
+        /**
+         * Processes the line after the last '\n' of {@code lines}, if any, as if it ended with one. Only the last
+         * chunk of the input can end in such a line, as every other chunk ends after a '\n'.
+         */
+        private void processUnterminated(MemorySegment lines) {
+            long start = lines.byteSize();
+            while (start > 0 && lines.get(ValueLayout.JAVA_BYTE, start - 1) != '\n') {
+                start--;
+            }
+            long length = lines.byteSize() - start;
+            if (length == 0) {
+                return;
+            }
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment line = arena.allocate(length + 1);
+                MemorySegment.copy(lines, start, line, 0, length);
+                line.set(ValueLayout.JAVA_BYTE, length, (byte) '\n');
+                process(line);
+            }
+        }
+
+        /**
+         * Parses a long at a time through {@code size} bytes at {@code address}. Lines too close to the end to read
+         * whole longs are copied into a zero padded tail buffer first, so that the loop never reads past the end.
+         */
+        private void parseSwar(long address, long size) {
+            long end = address + size;
+            while (end > address && UNSAFE.getByte(end - 1) != '\n') {
+                end--;
+            }
+            long pos = address;
+            long limit = address + size - SWAR_TAIL;
+            while (pos < end && pos <= limit) {
+                pos = parseLineSwar(pos);
+            }
+            int remaining = (int) (end - pos);
+            if (remaining > 0) {
+                UNSAFE.setMemory(tail, 2 * SWAR_TAIL, (byte) 0);
+                UNSAFE.copyMemory(pos, tail, remaining);
+                pos = tail;
+                while (pos < tail + remaining) {
+                    pos = parseLineSwar(pos);
+                }
+            }
+        }
+
+        private long parseLineSwar(long pos) {
+            long nameStart = pos;
+            long hash = 0;
+            long word = UNSAFE.getLong(pos);
+            int semicolon = findDelimiter(word);
+            while (semicolon == 8) {
+                hash = (hash ^ word) * 0x9E3779B97F4A7C15L;
+                pos += 8;
+                word = UNSAFE.getLong(pos);
+                semicolon = findDelimiter(word);
+            }
+            hash = (hash ^ (word & ((1L << (semicolon << 3)) - 1))) * 0x9E3779B97F4A7C15L;
+            pos += semicolon;
+            long numberWord = UNSAFE.getLong(pos + 1);
+            int decimalSepPos = Long.numberOfTrailingZeros(~numberWord & 0x10101000);
+            int temperature = convertIntoNumber(decimalSepPos, numberWord);
+            stations.add(null, nameStart, (int) (pos - nameStart), (int) (hash ^ (hash >>> 32)), temperature);
+            return pos + 1 + (decimalSepPos >>> 3) + 3;
+        }
+
+        /**
+         * Adds the line starting at {@code nameStart} once its delimiter has been found elsewhere. The name is
+         * hashed exactly like {@link #parseLineSwar(long)} does, as both end up in the same table.
+         */
+        private void addLine(long nameStart, long semicolon) {
+            long hash = 0;
+            long pos = nameStart;
+            for (; pos + 8 <= semicolon; pos += 8) {
+                hash = (hash ^ UNSAFE.getLong(pos)) * 0x9E3779B97F4A7C15L;
+            }
+            hash = (hash ^ (UNSAFE.getLong(pos) & ((1L << ((semicolon - pos) << 3)) - 1))) * 0x9E3779B97F4A7C15L;
+            long numberWord = UNSAFE.getLong(semicolon + 1);
+            int decimalSepPos = Long.numberOfTrailingZeros(~numberWord & 0x10101000);
+            int temperature = convertIntoNumber(decimalSepPos, numberWord);
+            stations.add(null, nameStart, (int) (semicolon - nameStart), (int) (hash ^ (hash >>> 32)), temperature);
+        }
+
+        private void parseBytes(ByteBuffer buf) {
+            int recordStart = buf.position();
+            int nameEnd = -1;
+            int n = 0;
+            int f = 0;
+            int mult = 1;
+            int hash = 0;
+            STATE state = STATE.IN_NAME;
+            while (buf.hasRemaining()) {
+                byte b = buf.get();
+                if (b == '\n') {
+                    if (state != STATE.IN_F) {
+                        throw new IllegalArgumentException();
                     }
+                    stations.add(recordNameBytes, Unsafe.ARRAY_BYTE_BASE_OFFSET, nameEnd - recordStart, hash, mult * (n * 10 + f));
+                    recordStart = buf.position();
+                    nameEnd = -1;
+                    n = 0;
+                    f = 0;
+                    mult = 1;
+                    hash = 0;
+                    state = STATE.IN_NAME;
+                    continue;
+                }
+                else if (b == ';') {
                     if (state == STATE.IN_NAME) {
-                        recordNameBytes[buf.position() - 1 - recordStart] = b;
-                        current = current.update(b);
+                        nameEnd = buf.position() - 1;
+                        state = STATE.IN_N;
+                        continue;
+                    }
+                    else {
+                        throw new IllegalArgumentException();
                     }
                 }
+                else if (b == '.') {
+                    if (state == STATE.IN_N) {
+                        state = STATE.IN_F;
+                        continue;
+                    }
+                }
+                if (state == STATE.IN_N) {
+                    if (b == '-') {
+                        mult = -1;
+                    }
+                    else {
+                        n = n * 10 + (b - '0');
+                    }
+                }
+                if (state == STATE.IN_F) {
+                    f = b - '0';
+                }
+                if (state == STATE.IN_NAME) {
+                    recordNameBytes[buf.position() - 1 - recordStart] = b;
+                    hash = 31 * hash + b;
+                }
             }
-            catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            isDone = true;
         }
     }
 
-    public static void main(String[] args) throws IOException {
-        // TreeMap<String, Record> obj = readUsingThreadsAndMemoryMappedFile();
-        Node obj = readUsingThreadsAndMemoryMappedFile();
-        obj.printResults(System.out);
-        // printResults(obj, System.out);
+    // Finds the first ';' in a little endian long (8 if there is none), see CalculateAverage_thomaswue
+    private static int findDelimiter(long word) {
+        long input = word ^ 0x3B3B3B3B3B3B3B3BL;
+        long tmp = (input - 0x0101010101010101L) & ~input & 0x8080808080808080L;
+        return Long.numberOfTrailingZeros(tmp) >>> 3;
+    }
+
+    // Branch free conversion of a temperature into tenths by Quan Anh Mai, see CalculateAverage_thomaswue
+    private static int convertIntoNumber(int decimalSepPos, long numberWord) {
+        int shift = 28 - decimalSepPos;
+        // signed is -1 if negative, 0 otherwise
+        long signed = (~numberWord << 59) >> 63;
+        long designMask = ~(signed & 0xFF);
+        // align the number to a specific position and transform the ascii code to the digit value in each byte
+        long digits = ((numberWord & designMask) << shift) & 0x0F000F0F00L;
+        long absValue = ((digits * 0x640a0001) >>> 32) & 0x3FF;
+        long value = (absValue ^ signed) - signed;
+        return (int) value;
     }
 
-    private static void printResults(TreeMap<String, Record> map, PrintStream out) {
-        out.print("{");
-        boolean[] first = { true };
-        map.forEach((key, value) -> {
-            if (!first[0]) {
-                out.print(", ");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (String arg : args) {
+            if (arg.startsWith("--table=")) {
+                table = TABLE.valueOf(arg.substring("--table=".length()).toUpperCase().replace('-', '_'));
             }
-            // System.out.println("record : " + value);
-            value.print(out);
-            first[0] = false;
-        });
-        out.print("}");
+            else if (arg.startsWith("--parser=")) {
+                parser = PARSER.valueOf(arg.substring("--parser=".length()).toUpperCase());
+            }
+            else if (arg.equals("--follow")) {
+                followInterval = 1000;
+            }
+            else if (arg.startsWith("--follow=")) {
+                followInterval = Long.parseLong(arg.substring("--follow=".length()));
+            }
+            else if (arg.equals("--sidecar")) {
+                sidecar = true;
+            }
+            else if (arg.equals("--histogram")) {
+                histograms = true;
+            }
+            else if (arg.startsWith("--mapping=")) {
+                mapping = MAPPING.valueOf(arg.substring("--mapping=".length()).toUpperCase());
+            }
+            else if (arg.equals("--prefetch")) {
+                prefetchDistance = DEFAULT_PREFETCH_DISTANCE;
+            }
+            else if (arg.startsWith("--prefetch=")) {
+                prefetchDistance = Long.parseLong(arg.substring("--prefetch=".length())) * 1024 * 1024;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + arg
+                        + ", expected --table=off-heap|trie, --parser=swar|bytes|vector, --follow[=<interval in ms>], --sidecar, --histogram,"
+                        + " --mapping=channel|native|populate or --prefetch[=<distance in MB>]");
+            }
+        }
+        if (parser == PARSER.VECTOR && (!VECTOR_MODULE || !VectorParser.isSupported())) {
+            System.err.println("Vector API or 256 bit vectors not available, falling back to --parser=swar");
+            parser = PARSER.SWAR;
+        }
+        if (followInterval > 0 && sidecar) {
+            throw new IllegalArgumentException("--follow and --sidecar can't be combined");
+        }
+        if (histograms && (table != TABLE.OFF_HEAP || sidecar)) {
+            throw new IllegalArgumentException("--histogram needs --table=off-heap and can't be combined with --sidecar");
+        }
+        if (mapping != MAPPING.CHANNEL && (followInterval > 0 || sidecar)) {
+            throw new IllegalArgumentException("--mapping can't be combined with --follow or --sidecar");
+        }
+        if (followInterval > 0) {
+            follow(followInterval);
+            return;
+        }
+        if (sidecar) {
+            Sidecar.read(Path.of(FILE)).results().writeTo(ResultWriter.standardOut());
+            return;
+        }
+        Stations obj = readUsingThreadsAndMemoryMappedFile();
+        obj.results().writeTo(ResultWriter.standardOut());
     }
 
-    private static Node readUsingThreadsAndMemoryMappedFile() throws IOException {
-        // private static TreeMap<String, Record> readUsingThreadsAndMemoryMappedFile() throws IOException {
-        var OVERLAP = 200;
+    private static Stations newStations() {
+        return switch (table) {
+            case TRIE -> new TrieStations();
+            case OFF_HEAP -> new OffHeapStations(histograms);
+        };
+    }
+
+    /**
+     * Keeps the stations of everything parsed so far and, every {@code intervalMillis}, parses only the complete
+     * lines appended since, printing the refreshed result if there were any. Starts over if the file shrinks.
+     */
+    private static void follow(long intervalMillis) throws IOException, InterruptedException {
         try (RandomAccessFile f = new RandomAccessFile(FILE, "r")) {
             FileChannel channel = f.getChannel();
-            long fileSize = channel.size();
-            int newDataInBuf = 0;
-            long readPosInFile = 0;
-            int shardCount = 0;
-            while (readPosInFile < fileSize) {
-                long oldReadPosInFile = readPosInFile;
-                readPosInFile = oldReadPosInFile - OVERLAP;
-                readPosInFile = readPosInFile < 0 ? 0 : readPosInFile;
-                newDataInBuf = (int) (oldReadPosInFile - readPosInFile);
-                int read = (int) Math.min(fileSize - readPosInFile, MAX_READ);
-                Shard shard = new Shard(String.valueOf(shardCount), f, readPosInFile, newDataInBuf, read);
-                shardCount++;
-                var th = new Thread(shard, shard.name);
-                // System.out.println("shard = " + shard);
-                shards.add(shard);
-                th.start();
-                // if (true)
-                // break;
-                readPosInFile += read;
-            }
-            int done = 0;
-            var shardsSize = shards.size();
-            while (done < shardsSize) {
+            Stations stations = newStations();
+            long processed = 0;
+            while (true) {
+                long size = channel.size();
+                if (size < processed) {
+                    stations = newStations();
+                    processed = 0;
+                }
+                long end = lastLineEnd(channel, processed, size);
+                if (end > processed) {
+                    stations.merge(readUsingThreads(channel, processed, end, Runtime.getRuntime().availableProcessors(), NEW_THREADS));
+                    processed = end;
+                    stations.results().writeLineTo(ResultWriter.standardOut());
+                }
+                Thread.sleep(intervalMillis);
+            }
+        }
+    }
+
+    // Returns the offset after the last newline in [from, to), or from if there is none
+    private static long lastLineEnd(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(OVERLAP);
+        long end = to;
+        while (end > from) {
+            long start = Math.max(from, end - OVERLAP);
+            buf.clear().limit((int) (end - start));
+            while (buf.hasRemaining() && channel.read(buf, start + buf.position()) >= 0) {
+            }
+            for (int i = buf.position() - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return from;
+    }
+
+    private static Stations readUsingThreadsAndMemoryMappedFile() throws IOException {
+        // as a worker of UnmapInBackground, leave the mapping to the exit, which the launcher doesn't wait for
+        boolean keepMapping = UnmapInBackground.isWorker();
+        Arena arena = keepMapping ? Arena.global() : Arena.ofShared();
+        try {
+            Path file = Path.of(FILE);
+            MemorySegment segment;
+            if (mapping != MAPPING.CHANNEL) {
+                segment = NativeMapping.map(file, 0, Files.size(file), arena, mapping == MAPPING.POPULATE);
+            }
+            else {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+                }
+            }
+            return readUsingThreads(segment, 0, segment.byteSize(), Runtime.getRuntime().availableProcessors(), NEW_THREADS);
+        }
+        finally {
+            if (!keepMapping) {
+                arena.close();
+            }
+        }
+    }
+
+    static StationAggregator.Result aggregate(Path file, int threads, Executor executor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return toResult(readUsingThreads(channel, 0, channel.size(), threads, executor));
+        }
+    }
+
+    /**
+     * Heap segments are copied into a shared arena, so that all threads can parse them, while a segment confined to
+     * the calling thread is only parsed by it.
+     */
+    static StationAggregator.Result aggregate(MemorySegment segment, int threads, Executor executor) throws IOException {
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment data = segment;
+            if (!data.isNative()) {
+                data = arena.allocate(segment.byteSize()).copyFrom(segment);
+            }
+            if (!data.isAccessibleBy(new Thread(() -> {
+            }))) {
+                threads = 1;
+            }
+            return toResult(readUsingThreads(data, 0, data.byteSize(), threads, executor));
+        }
+    }
+
+    /**
+     * Reads a file channel from its position like a file. Any other channel is read sequentially into a buffer
+     * and parsed by a single shard, one buffer of complete lines at a time.
+     */
+    static StationAggregator.Result aggregate(ReadableByteChannel channel, int threads, Executor executor) throws IOException {
+        if (channel instanceof FileChannel fileChannel) {
+            return toResult(readUsingThreads(fileChannel, fileChannel.position(), fileChannel.size(), threads, executor));
+        }
+        Shard shard = new Shard("0", parser);
+        ByteBuffer buf = ByteBuffer.allocateDirect(MAX_CHUNK_SIZE);
+        boolean eof = false;
+        while (!eof) {
+            while (buf.hasRemaining() && !eof) {
+                eof = channel.read(buf) < 0;
+            }
+            if (eof && buf.position() > 0 && buf.get(buf.position() - 1) != '\n') {
+                buf.put((byte) '\n');
+            }
+            buf.flip();
+            int end = buf.limit();
+            while (end > 0 && buf.get(end - 1) != '\n') {
+                end--;
+            }
+            if (end == 0 && !eof) {
+                throw new IllegalArgumentException("No line ends within " + buf.capacity() + " bytes");
+            }
+            shard.process(MemorySegment.ofBuffer(buf.slice(0, end)));
+            buf.limit(buf.capacity()).position(end);
+            buf.compact();
+        }
+        return toResult(shard.stations);
+    }
+
+    /**
+     * Parses every line of a direct buffer into the given stations on the calling thread, so that the parsers can be
+     * benchmarked on their own.
+     */
+    static void parse(ByteBuffer buf, PARSER parser, Stations stations) {
+        new Shard("0", parser, stations).process(MemorySegment.ofBuffer(buf));
+    }
+
+    private static StationAggregator.Result toResult(Stations stations) {
+        List<Record> records = new ArrayList<>();
+        stations.collectRecords(records);
+        List<StationAggregator.Station> result = new ArrayList<>(records.size());
+        for (Record r : records) {
+            result.add(StationAggregator.Station.ofTenths(r.name(), r.min, r.sum, r.count, r.max));
+        }
+        return new StationAggregator.Result(result);
+    }
+
+    /**
+     * Runs this implementation through {@link AggregationEngine}, with the defaults of {@link StationAggregator}.
+     */
+    public static final class Engine implements AggregationEngine {
+
+        @Override
+        public String name() {
+            return "sachinhejip";
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) throws IOException {
+            return StationAggregator.aggregate(input);
+        }
+    }
+
+    /**
+     * Maps [from, to) of the file as one segment and parses its lines, where from is the start of a line. The
+     * file is unmapped again before this returns.
+     */
+    private static Stations readUsingThreads(FileChannel channel, long from, long to, int threads, Executor executor) throws IOException {
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from, arena);
+            return readUsingThreads(segment, 0, segment.byteSize(), threads, executor);
+        }
+    }
+
+    /**
+     * Parses the lines in [from, to) of the segment, where from is the start of a line. A last line without a '\n'
+     * is parsed as if it ended at {@code to}, so --follow only reads up to the last complete line.
+     */
+    private static Stations readUsingThreads(MemorySegment segment, long from, long to, int threads, Executor executor) {
+        // aim for at least 16 chunks per thread so that slow cores can't hold up the end of the run
+        long chunkSize = Math.clamp((to - from) / (threads * 16L), MIN_CHUNK_SIZE, MAX_CHUNK_SIZE);
+        return readUsingThreads(segment, from, to, chunkSize, null, threads, executor);
+    }
+
+    /**
+     * Parses [from, to) of the segment in chunks of about {@code chunkSize}, skipping the chunks that already have
+     * partials if those are given. The last shard runs on the calling thread and the others on the executor, and
+     * this only returns once every shard (and the {@link Prefetcher}, with --prefetch) is done with the segment, so
+     * that it can be unmapped right after.
+     */
+    private static Stations readUsingThreads(MemorySegment segment, long from, long to, long chunkSize, Stations[] partials, int threads,
+                                             Executor executor) {
+        int chunkCount = (int) ((to - from + chunkSize - 1) / chunkSize);
+        AtomicInteger nextChunk = new AtomicInteger();
+        int shardCount = Math.min(threads, chunkCount);
+        if (shardCount == 0) {
+            return newStations();
+        }
+        Reduction reduction = new Reduction(shardCount);
+        List<CompletableFuture<Void>> workers = new ArrayList<>(shardCount - 1);
+        Prefetcher prefetcher = null;
+        if (prefetchDistance > 0) {
+            prefetcher = new Prefetcher(segment, from, to, chunkSize, nextChunk, prefetchDistance);
+            prefetcher.start();
+        }
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                Shard shard = new Shard(String.valueOf(i), segment, from, to, chunkSize, chunkCount, nextChunk, partials, reduction);
+                if (i == shardCount - 1) {
+                    shard.run();
+                    break;
+                }
+                workers.add(CompletableFuture.runAsync(shard, executor));
+            }
+            return reduction.result.join();
+        }
+        finally {
+            // a shard that failed completes the result early, while the others may still be reading
+            nextChunk.set(chunkCount);
+            if (prefetcher != null) {
+                prefetcher.stop();
+            }
+            // shards report failures to the reduction, so these complete normally, and join() isn't interruptible
+            workers.forEach(CompletableFuture::join);
+        }
+    }
+
+    /**
+     * Returns where chunk {@code chunk} of [from, to) starts: right after the first newline at or after
+     * {@code from + chunk * chunkSize}, like CalculateAverage_thomaswue aligns its segments. Each chunk thus ends
+     * with the line that crosses its nominal end, and neighbouring chunks agree on where they meet.
+     */
+    private static long chunkStart(MemorySegment segment, long from, long to, long chunkSize, int chunk) {
+        if (chunk == 0) {
+            return from;
+        }
+        long start = from + chunk * chunkSize;
+        while (start < to && segment.get(ValueLayout.JAVA_BYTE, start++) != '\n') {
+            // nop
+        }
+        return Math.min(start, to);
+    }
+
+    /**
+     * Finds ';' and '\n' for a whole vector of bytes with two compares and walks the resulting bit masks, so
+     * lines are found without looking at single bytes. Only referenced with --parser=vector, as the class can't be
+     * loaded without --add-modules jdk.incubator.vector.
+     */
+    private static class VectorParser {
+        private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+        static boolean isSupported() {
+            // narrower vectors (or none at all) are better served by the SWAR parser
+            return SPECIES.vectorBitSize() >= 256;
+        }
+
+        /**
+         * Adds every line of {@code segment} that ends in a vector that can be read whole, with a long to spare for
+         * reading the temperature. Returns the offset of the first line left to the caller.
+         */
+        static long parse(Shard shard, MemorySegment segment) {
+            long address = segment.address();
+            int length = SPECIES.length();
+            long lineStart = 0;
+            long semicolon = 0;
+            for (long block = 0; block + length + Long.BYTES <= segment.byteSize(); block += length) {
+                ByteVector bytes = ByteVector.fromMemorySegment(SPECIES, segment, block, ByteOrder.nativeOrder());
+                long newlines = bytes.eq((byte) '\n').toLong();
+                long delimiters = bytes.eq((byte) ';').toLong() | newlines;
+                while (delimiters != 0) {
+                    int i = Long.numberOfTrailingZeros(delimiters);
+                    if ((newlines & (1L << i)) == 0) {
+                        semicolon = block + i;
+                    }
+                    else {
+                        shard.addLine(address + lineStart, address + semicolon);
+                        lineStart = block + i + 1;
+                    }
+                    delimiters &= delimiters - 1;
+                }
+            }
+            return lineStart;
+        }
+    }
+
+    /**
+     * Adds histograms a vector of counts at a time. Only referenced when the jdk.incubator.vector module is there.
+     */
+    private static class VectorHistograms {
+        private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+        static void add(MemorySegment into, MemorySegment from) {
+            long bytes = (long) SPECIES.loopBound(HISTOGRAM_BUCKETS) * Integer.BYTES;
+            long offset = 0;
+            for (; offset < bytes; offset += SPECIES.vectorByteSize()) {
+                IntVector.fromMemorySegment(SPECIES, into, offset, ByteOrder.nativeOrder())
+                        .add(IntVector.fromMemorySegment(SPECIES, from, offset, ByteOrder.nativeOrder()))
+                        .intoMemorySegment(into, offset, ByteOrder.nativeOrder());
+            }
+            for (; offset < into.byteSize(); offset += Integer.BYTES) {
+                into.set(ValueLayout.JAVA_INT, offset, into.get(ValueLayout.JAVA_INT, offset) + from.get(ValueLayout.JAVA_INT, offset));
+            }
+        }
+    }
+
+    /**
+     * Station lookup used by a {@link Shard}. The name bytes are hashed while they are scanned so that a
+     * table can use the hash, while the trie walks the bytes itself. Names are read from {@code base + offset},
+     * which is either a byte[] or, with a null base, an address in the mapped file.
+     */
+    static abstract class Stations {
+
+        abstract void add(Object base, long offset, int nameLength, int hash, int temperature);
+
+        abstract Stations merge(Stations stations);
+
+        abstract void collectRecords(List<Record> collector);
+
+        /**
+         * Folds counters that are only kept in 32 bits while parsing into the 64-bit totals. Called after every
+         * {@link #WIDEN_INTERVAL} bytes, which is too few for them to overflow.
+         */
+        void widen() {
+        }
+
+        /**
+         * Returns the stations sorted by name, formatted and ready to be written.
+         */
+        ResultWriter results() {
+            List<Record> records = new ArrayList<>(100000);
+            collectRecords(records);
+            // streaming is faster by a bit (1-2 seconds)
+            ResultWriter results = new ResultWriter(records.size());
+            records.stream().sorted(Comparator.comparing(Record::name)).forEach(r -> r.write(results));
+            return results;
+        }
+    }
+
+    /**
+     * Stations as records keyed by name, for partials that are kept rather than merged away. Records added here
+     * are copied, so merging doesn't change the stations they came from.
+     */
+    private static class RecordStations extends Stations {
+        private final Map<String, Record> records = new HashMap<>();
+
+        @Override
+        void add(Object base, long offset, int nameLength, int hash, int temperature) {
+            byte[] nameBytes = new byte[nameLength];
+            UNSAFE.copyMemory(base, offset, nameBytes, Unsafe.ARRAY_BYTE_BASE_OFFSET, nameLength);
+            add(new Record(nameBytes).update(temperature));
+        }
+
+        void add(Record record) {
+            records.computeIfAbsent(record.name(), name -> new Record(record.nameBytes)).update(record);
+        }
+
+        @Override
+        Stations merge(Stations stations) {
+            List<Record> other = new ArrayList<>();
+            stations.collectRecords(other);
+            other.forEach(this::add);
+            return this;
+        }
+
+        @Override
+        void collectRecords(List<Record> collector) {
+            collector.addAll(records.values());
+        }
+    }
+
+    /**
+     * Keeps the stations of every fixed-size chunk of the file in a sidecar file next to it, along with the
+     * chunk's range and a fingerprint of its content. A chunk whose range and fingerprint still match is merged
+     * from the sidecar instead of being parsed, so re-reading a file that mostly didn't change (or only grew)
+     * costs little more than parsing what's new.
+     * <p>
+     * The fingerprint only samples each chunk, so an edit that keeps the file's length and misses every sample
+     * goes unnoticed. Delete the sidecar to force a full run.
+     */
+    private static class Sidecar {
+        private static final int MAGIC = 0x31627263;
+        // 2: chunks start at the next line instead of re-reading an overlap
+        // 3: counts and sums as longs
+        private static final int VERSION = 3;
+        // fixed rather than sized by core count so that chunks line up from one run to the next
+        private static final long CHUNK_SIZE = MAX_CHUNK_SIZE;
+        private static final int FINGERPRINT_SAMPLES = 8;
+        private static final int FINGERPRINT_BLOCK = 4096;
+
+        private record Chunk(long start, long end, long fingerprint, Stations stations) {
+        }
+
+        static Stations read(Path file) throws IOException {
+            Path sidecarFile = file.resolveSibling(file.getFileName() + ".chunks");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ); Arena arena = Arena.ofShared()) {
+                long fileSize = channel.size();
+                MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize, arena);
+                int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+                List<Chunk> saved = load(sidecarFile);
+                Chunk[] chunks = new Chunk[chunkCount];
+                Stations[] partials = new Stations[chunkCount];
+                for (int i = 0; i < chunkCount; i++) {
+                    long start = chunkStart(segment, 0, fileSize, CHUNK_SIZE, i);
+                    long end = chunkStart(segment, 0, fileSize, CHUNK_SIZE, i + 1);
+                    long fingerprint = fingerprint(segment, start, end);
+                    chunks[i] = new Chunk(start, end, fingerprint, null);
+                    if (i < saved.size()) {
+                        Chunk chunk = saved.get(i);
+                        if (chunk.start == start && chunk.end == end && chunk.fingerprint == fingerprint) {
+                            partials[i] = chunk.stations;
+                        }
+                    }
+                }
+                readUsingThreads(segment, 0, fileSize, CHUNK_SIZE, partials, Runtime.getRuntime().availableProcessors(), NEW_THREADS);
+                RecordStations result = new RecordStations();
+                for (int i = 0; i < chunkCount; i++) {
+                    chunks[i] = new Chunk(chunks[i].start, chunks[i].end, chunks[i].fingerprint, partials[i]);
+                    result.merge(partials[i]);
+                }
+                save(sidecarFile, chunks);
+                return result;
+            }
+        }
+
+        // Hashes the range's length and a few blocks spread evenly over it, first and last included
+        private static long fingerprint(MemorySegment segment, long start, long end) {
+            long hash = end - start;
+            for (int i = 0; i < FINGERPRINT_SAMPLES; i++) {
+                long position = start + Math.max(0, end - start - FINGERPRINT_BLOCK) * i / (FINGERPRINT_SAMPLES - 1);
+                long blockEnd = Math.min(position + FINGERPRINT_BLOCK, end);
+                for (; position + Long.BYTES <= blockEnd; position += Long.BYTES) {
+                    hash = (hash ^ segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position)) * 0x9E3779B97F4A7C15L;
+                }
+                for (; position < blockEnd; position++) {
+                    hash = (hash ^ segment.get(ValueLayout.JAVA_BYTE, position)) * 0x9E3779B97F4A7C15L;
+                }
+            }
+            return hash;
+        }
+
+        // Returns the saved chunks, or none if there is no sidecar or it was written with other settings
+        private static List<Chunk> load(Path sidecarFile) throws IOException {
+            List<Chunk> chunks = new ArrayList<>();
+            if (!Files.exists(sidecarFile)) {
+                return chunks;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecarFile), 1 << 16))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != CHUNK_SIZE) {
+                    return chunks;
+                }
+                int chunkCount = in.readInt();
+                for (int i = 0; i < chunkCount; i++) {
+                    long start = in.readLong();
+                    long end = in.readLong();
+                    long fingerprint = in.readLong();
+                    RecordStations stations = new RecordStations();
+                    int recordCount = in.readInt();
+                    for (int j = 0; j < recordCount; j++) {
+                        Record record = new Record(in.readNBytes(in.readUnsignedShort()));
+                        record.count = in.readLong();
+                        record.sum = in.readLong();
+                        record.min = in.readInt();
+                        record.max = in.readInt();
+                        stations.add(record);
+                    }
+                    chunks.add(new Chunk(start, end, fingerprint, stations));
+                }
+            }
+            catch (EOFException e) {
+                chunks.clear();
+            }
+            return chunks;
+        }
+
+        // Writes next to the sidecar and moves it into place, so a run that dies midway leaves the old one
+        private static void save(Path sidecarFile, Chunk[] chunks) throws IOException {
+            Path tmp = sidecarFile.resolveSibling(sidecarFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(CHUNK_SIZE);
+                out.writeInt(chunks.length);
+                List<Record> records = new ArrayList<>();
+                for (Chunk chunk : chunks) {
+                    out.writeLong(chunk.start);
+                    out.writeLong(chunk.end);
+                    out.writeLong(chunk.fingerprint);
+                    records.clear();
+                    chunk.stations.collectRecords(records);
+                    out.writeInt(records.size());
+                    for (Record record : records) {
+                        out.writeShort(record.nameBytes.length);
+                        out.write(record.nameBytes);
+                        out.writeLong(record.count);
+                        out.writeLong(record.sum);
+                        out.writeInt(record.min);
+                        out.writeInt(record.max);
+                    }
+                }
+            }
+            Files.move(tmp, sidecarFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Touches a byte of every page ahead of the shards on a thread of its own, so that the shards find the file
+     * read in instead of faulting on it page by page. As chunks are claimed in file order, every shard reads
+     * somewhere before the start of the next chunk to be claimed, and the prefetcher stays up to {@code distance}
+     * bytes past that.
+     */
+    private static class Prefetcher implements Runnable {
+        private final MemorySegment segment;
+        private final long from;
+        private final long to;
+        private final long chunkSize;
+        private final AtomicInteger nextChunk;
+        private final long distance;
+        private final Thread thread = Thread.ofPlatform().name("prefetcher").daemon().unstarted(this);
+        private volatile boolean stopped;
+        // the sum of the bytes touched, kept so that reading them can't be optimized away
+        private long touched;
+
+        Prefetcher(MemorySegment segment, long from, long to, long chunkSize, AtomicInteger nextChunk, long distance) {
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+            this.nextChunk = nextChunk;
+            this.distance = distance;
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        /**
+         * Stops prefetching and waits for the thread to be done with the segment.
+         */
+        void stop() {
+            stopped = true;
+            boolean interrupted = false;
+            while (thread.isAlive()) {
                 try {
-                    Thread.sleep(1);
-                    done = shards.stream().mapToInt(s -> s.isDone ? 1 : 0).sum();
+                    thread.join();
                 }
                 catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }
-
-        Node node = shards.get(0).node;
-        for (Shard shard : shards) {
-            node.merge(shard.node);
-        }
-        return node;
-        // TreeMap<String, Record> map = shards.get(0).map;
-        // for (int i = 1; i < shards.size(); i++) {
-        // TreeMap<String, Record> shardMap = shards.get(i).map;
-        // for (String s : shardMap.keySet()) {
-        // Record shardRecord = shardMap.get(s);
-        // // if (map.computeIfPresent(s, (k, r) -> r.update(shardRecord)) == null) {
-        // // map.put(s, shardRecord);
-        // // }
-        // // if (s.equals(MARKED_CITY)) {
-        // // System.out.println("shardRecord = " + shardRecord);
-        // // }
-        // if (map.containsKey(s)) {
-        // Record mapRecord = map.get(s);
-        // // if (s.equals(MARKED_CITY)) {
-        // // System.out.println("mapRecord = " + shardRecord);
-        // // }
-        // mapRecord.update(shardRecord);
-        // // if (s.equals(MARKED_CITY)) {
-        // // System.out.println("Map's updated mapRecord = " + mapRecord);
-        // // }
-        // }
-        // else {
-        // map.put(s, shardRecord);
-        // }
-        // }
-        // }
-        // return map;
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            long position = from;
+            long sum = 0;
+            while (position < to && !stopped) {
+                long limit = Math.min(to, from + nextChunk.get() * chunkSize + distance);
+                if (position >= limit) {
+                    LockSupport.parkNanos(PREFETCH_PARK_NANOS);
+                    continue;
+                }
+                for (; position < limit && !stopped; position += PREFETCH_STRIDE) {
+                    sum += segment.get(ValueLayout.JAVA_BYTE, position);
+                }
+            }
+            touched = sum;
+        }
+    }
+
+    /**
+     * Merges the stations of finished shards pairwise: a shard that finishes takes whatever result is waiting,
+     * merges it into its own and tries again, or leaves its result for the next shard to finish. Merges therefore
+     * run in parallel on the shard threads and the result is complete once one result holds every shard.
+     */
+    private static class Reduction {
+        private final int parts;
+        private final AtomicReference<Partial> pending = new AtomicReference<>();
+        private final CompletableFuture<Stations> result = new CompletableFuture<>();
+
+        private record Partial(Stations stations, int parts) {
+        }
+
+        Reduction(int parts) {
+            this.parts = parts;
+        }
+
+        void add(Stations stations) {
+            int merged = 1;
+            while (true) {
+                Partial other = pending.getAndSet(null);
+                if (other != null) {
+                    stations = stations.merge(other.stations);
+                    merged += other.parts;
+                    continue;
+                }
+                if (merged == parts) {
+                    result.complete(stations);
+                    return;
+                }
+                if (pending.compareAndSet(null, new Partial(stations, merged))) {
+                    return;
+                }
+            }
+        }
+
+        void fail(Throwable e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    static class TrieStations extends Stations {
+        private final Node root = new Node((byte) -1);
+
+        @Override
+        void add(Object base, long offset, int nameLength, int hash, int temperature) {
+            Node current = root;
+            for (int i = 0; i < nameLength; i++) {
+                current = current.update(UNSAFE.getByte(base, offset + i));
+            }
+            current.setRecord(base, offset, nameLength, temperature);
+        }
+
+        @Override
+        Stations merge(Stations stations) {
+            root.merge(((TrieStations) stations).root);
+            return this;
+        }
+
+        @Override
+        void collectRecords(List<Record> collector) {
+            root.collectRecords(collector);
+        }
+    }
+
+    /**
+     * Open addressing table with fixed-stride slots in off-heap memory. A slot holds the hash, the name length,
+     * count, sum, min and max (in tenths) followed by the name bytes. Grows when it is half full.
+     * <p>
+     * The slot's count and sum are ints, so that adding a temperature stays as cheap as ever; {@link #widen()}
+     * moves them into long totals kept on the heap, one per slot.
+     * <p>
+     * With histograms, every station also gets {@link #HISTOGRAM_BUCKETS} int counts in a separate off-heap
+     * segment, found by the order in which its slot was claimed (which grow() keeps). A station's counts are
+     * folded into longs before they could overflow.
+     */
+    static class OffHeapStations extends Stations {
+        static final long HASH_OFFSET = 0;
+        static final long NAME_LENGTH_OFFSET = HASH_OFFSET + Integer.BYTES;
+        static final long COUNT_OFFSET = NAME_LENGTH_OFFSET + Integer.BYTES;
+        static final long SUM_OFFSET = COUNT_OFFSET + Integer.BYTES;
+        static final long MIN_OFFSET = SUM_OFFSET + Integer.BYTES;
+        static final long MAX_OFFSET = MIN_OFFSET + Short.BYTES;
+        static final long ORDINAL_OFFSET = MAX_OFFSET + Short.BYTES;
+        static final long NAME_OFFSET = ORDINAL_OFFSET + Integer.BYTES;
+        static final long SIZEOF = 128;
+        static final int INITIAL_CAPACITY = 1 << 14;
+        static final long HISTOGRAM_SIZEOF = HISTOGRAM_BUCKETS * Integer.BYTES;
+        static final int INITIAL_HISTOGRAMS = 1 << 8;
+        // a station's int counts are folded once they hold this many rows, as the next span can't add 2^31 more
+        static final long FOLD_THRESHOLD = Integer.MAX_VALUE - WIDEN_INTERVAL;
+
+        private MemorySegment segment;
+        private long address;
+        private int capacity;
+        private int size;
+        // the index of every claimed slot, in the order they were claimed
+        private int[] claimed;
+        private long[] counts;
+        private long[] sums;
+
+        private final boolean histograms;
+        private MemorySegment histogramSegment;
+        private long histogramAddress;
+        // by ordinal: the rows counted in the station's ints since they were last folded, and the folded counts
+        private long[] histogramRows;
+        private long[][] foldedHistograms;
+
+        OffHeapStations() {
+            this(false);
+        }
+
+        OffHeapStations(boolean histograms) {
+            this.histograms = histograms;
+            allocate(INITIAL_CAPACITY);
+            if (histograms) {
+                allocateHistograms(INITIAL_HISTOGRAMS);
+            }
+        }
+
+        private void allocate(int capacity) {
+            // the segment is freed once unreachable, so it is kept along with its address
+            this.segment = Arena.ofAuto().allocate(capacity * SIZEOF, 64);
+            this.segment.fill((byte) 0);
+            this.address = segment.address();
+            this.capacity = capacity;
+            this.size = 0;
+            this.claimed = new int[capacity / 2];
+            this.counts = new long[capacity];
+            this.sums = new long[capacity];
+        }
+
+        /**
+         * Forgets every station, keeping the capacity the table has grown to.
+         */
+        void clear() {
+            segment.fill((byte) 0);
+            size = 0;
+            Arrays.fill(counts, 0);
+            Arrays.fill(sums, 0);
+            if (histograms) {
+                histogramSegment.fill((byte) 0);
+                Arrays.fill(histogramRows, 0);
+                Arrays.fill(foldedHistograms, null);
+            }
+        }
+
+        private void allocateHistograms(int stations) {
+            MemorySegment oldSegment = histogramSegment;
+            histogramSegment = Arena.ofAuto().allocate(stations * HISTOGRAM_SIZEOF, 64);
+            histogramSegment.fill((byte) 0);
+            histogramAddress = histogramSegment.address();
+            if (oldSegment != null) {
+                histogramSegment.copyFrom(oldSegment);
+            }
+            histogramRows = histogramRows == null ? new long[stations] : Arrays.copyOf(histogramRows, stations);
+            foldedHistograms = foldedHistograms == null ? new long[stations][] : Arrays.copyOf(foldedHistograms, stations);
+        }
+
+        @Override
+        void add(Object base, long offset, int nameLength, int hash, int temperature) {
+            long slot = find(base, offset, nameLength, hash);
+            UNSAFE.putShort(slot + MIN_OFFSET, (short) Math.min(UNSAFE.getShort(slot + MIN_OFFSET), temperature));
+            UNSAFE.putShort(slot + MAX_OFFSET, (short) Math.max(UNSAFE.getShort(slot + MAX_OFFSET), temperature));
+            UNSAFE.putInt(slot + COUNT_OFFSET, UNSAFE.getInt(slot + COUNT_OFFSET) + 1);
+            UNSAFE.putInt(slot + SUM_OFFSET, UNSAFE.getInt(slot + SUM_OFFSET) + temperature);
+            if (histograms) {
+                int bucket = temperature - MIN_TEMPERATURE;
+                if (bucket < 0 || bucket >= HISTOGRAM_BUCKETS) {
+                    throw new IllegalArgumentException("Temperature " + temperature / 10.0 + " out of range for --histogram");
+                }
+                long count = histogramAddress + UNSAFE.getInt(slot + ORDINAL_OFFSET) * HISTOGRAM_SIZEOF + bucket * Integer.BYTES;
+                UNSAFE.putInt(count, UNSAFE.getInt(count) + 1);
+            }
+        }
+
+        /**
+         * Returns the slot for the given name, claiming an empty one (with a zero count) if the name is new.
+         * The name is read from {@code base + offset}, so it can be either a byte[] or another table's slot.
+         */
+        private long find(Object base, long offset, int nameLength, int hash) {
+            if (nameLength > MAX_NAME_LENGTH) {
+                throw new IllegalArgumentException("Station name longer than " + MAX_NAME_LENGTH + " bytes");
+            }
+            int mask = capacity - 1;
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (true) {
+                long slot = address + index * SIZEOF;
+                int slotNameLength = UNSAFE.getInt(slot + NAME_LENGTH_OFFSET);
+                if (slotNameLength == 0) {
+                    if (size >= capacity / 2) {
+                        grow();
+                        return find(base, offset, nameLength, hash);
+                    }
+                    UNSAFE.putInt(slot + HASH_OFFSET, hash);
+                    UNSAFE.putInt(slot + NAME_LENGTH_OFFSET, nameLength);
+                    UNSAFE.putShort(slot + MIN_OFFSET, Short.MAX_VALUE);
+                    UNSAFE.putShort(slot + MAX_OFFSET, Short.MIN_VALUE);
+                    UNSAFE.putInt(slot + ORDINAL_OFFSET, size);
+                    UNSAFE.copyMemory(base, offset, null, slot + NAME_OFFSET, nameLength);
+                    if (histograms && size == histogramRows.length) {
+                        allocateHistograms(2 * size);
+                    }
+                    claimed[size++] = index;
+                    return slot;
+                }
+                if (UNSAFE.getInt(slot + HASH_OFFSET) == hash && slotNameLength == nameLength
+                        && nameEquals(base, offset, slot + NAME_OFFSET, nameLength)) {
+                    return slot;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        private int index(long slot) {
+            return (int) ((slot - address) / SIZEOF);
+        }
+
+        private static boolean nameEquals(Object base, long offset, long slotName, int nameLength) {
+            int i = 0;
+            for (; i + Long.BYTES <= nameLength; i += Long.BYTES) {
+                if (UNSAFE.getLong(base, offset + i) != UNSAFE.getLong(slotName + i)) {
+                    return false;
+                }
+            }
+            for (; i < nameLength; i++) {
+                if (UNSAFE.getByte(base, offset + i) != UNSAFE.getByte(slotName + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void widen() {
+            for (int i = 0; i < size; i++) {
+                int index = claimed[i];
+                long slot = address + index * SIZEOF;
+                int count = UNSAFE.getInt(slot + COUNT_OFFSET);
+                counts[index] += count;
+                sums[index] += UNSAFE.getInt(slot + SUM_OFFSET);
+                UNSAFE.putInt(slot + COUNT_OFFSET, 0);
+                UNSAFE.putInt(slot + SUM_OFFSET, 0);
+                if (histograms && (histogramRows[i] += count) > FOLD_THRESHOLD) {
+                    foldHistogram(i);
+                }
+            }
+        }
+
+        private MemorySegment histogram(int ordinal) {
+            return histogramSegment.asSlice(ordinal * HISTOGRAM_SIZEOF, HISTOGRAM_SIZEOF);
+        }
+
+        // moves the int counts of a station into its longs
+        private void foldHistogram(int ordinal) {
+            if (foldedHistograms[ordinal] == null) {
+                foldedHistograms[ordinal] = new long[HISTOGRAM_BUCKETS];
+            }
+            addHistogram(foldedHistograms[ordinal], ordinal);
+            histogram(ordinal).fill((byte) 0);
+            histogramRows[ordinal] = 0;
+        }
+
+        // adds the int and the folded counts of a station to the given longs
+        private void addHistogram(long[] into, int ordinal) {
+            long histogram = histogramAddress + ordinal * HISTOGRAM_SIZEOF;
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                into[bucket] += UNSAFE.getInt(histogram + bucket * Integer.BYTES);
+            }
+            long[] folded = foldedHistograms[ordinal];
+            if (folded != null && folded != into) {
+                for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                    into[bucket] += folded[bucket];
+                }
+            }
+        }
+
+        private void grow() {
+            widen();
+            MemorySegment oldSegment = segment;
+            long oldAddress = address;
+            int oldSize = size;
+            int[] oldClaimed = claimed;
+            long[] oldCounts = counts;
+            long[] oldSums = sums;
+            allocate(capacity * 2);
+            for (int i = 0; i < oldSize; i++) {
+                int oldIndex = oldClaimed[i];
+                long oldSlot = oldAddress + oldIndex * SIZEOF;
+                long slot = find(null, oldSlot + NAME_OFFSET, UNSAFE.getInt(oldSlot + NAME_LENGTH_OFFSET), UNSAFE.getInt(oldSlot + HASH_OFFSET));
+                UNSAFE.copyMemory(oldSlot + COUNT_OFFSET, slot + COUNT_OFFSET, NAME_OFFSET - COUNT_OFFSET);
+                counts[index(slot)] = oldCounts[oldIndex];
+                sums[index(slot)] = oldSums[oldIndex];
+            }
+            Reference.reachabilityFence(oldSegment);
+        }
+
+        @Override
+        Stations merge(Stations stations) {
+            OffHeapStations other = (OffHeapStations) stations;
+            if (other == this) {
+                return this;
+            }
+            widen();
+            other.widen();
+            for (int i = 0; i < other.size; i++) {
+                int otherIndex = other.claimed[i];
+                long otherSlot = other.address + otherIndex * SIZEOF;
+                long slot = find(null, otherSlot + NAME_OFFSET, UNSAFE.getInt(otherSlot + NAME_LENGTH_OFFSET), UNSAFE.getInt(otherSlot + HASH_OFFSET));
+                counts[index(slot)] += other.counts[otherIndex];
+                sums[index(slot)] += other.sums[otherIndex];
+                UNSAFE.putShort(slot + MIN_OFFSET, (short) Math.min(UNSAFE.getShort(slot + MIN_OFFSET), UNSAFE.getShort(otherSlot + MIN_OFFSET)));
+                UNSAFE.putShort(slot + MAX_OFFSET, (short) Math.max(UNSAFE.getShort(slot + MAX_OFFSET), UNSAFE.getShort(otherSlot + MAX_OFFSET)));
+                if (histograms) {
+                    mergeHistogram(UNSAFE.getInt(slot + ORDINAL_OFFSET), other, i);
+                }
+            }
+            return this;
+        }
+
+        private void mergeHistogram(int ordinal, OffHeapStations other, int otherOrdinal) {
+            // both hold at most FOLD_THRESHOLD rows in ints after widen(), so one fold makes room for the other
+            if (histogramRows[ordinal] + other.histogramRows[otherOrdinal] > FOLD_THRESHOLD) {
+                foldHistogram(ordinal);
+            }
+            MemorySegment into = histogram(ordinal);
+            MemorySegment from = other.histogram(otherOrdinal);
+            if (VECTOR_MODULE) {
+                VectorHistograms.add(into, from);
+            }
+            else {
+                for (long bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                    into.setAtIndex(ValueLayout.JAVA_INT, bucket, into.getAtIndex(ValueLayout.JAVA_INT, bucket) + from.getAtIndex(ValueLayout.JAVA_INT, bucket));
+                }
+            }
+            histogramRows[ordinal] += other.histogramRows[otherOrdinal];
+            long[] folded = other.foldedHistograms[otherOrdinal];
+            if (folded != null) {
+                if (foldedHistograms[ordinal] == null) {
+                    foldedHistograms[ordinal] = new long[HISTOGRAM_BUCKETS];
+                }
+                for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                    foldedHistograms[ordinal][bucket] += folded[bucket];
+                }
+            }
+        }
+
+        @Override
+        void collectRecords(List<Record> collector) {
+            long[] histogram = histograms ? new long[HISTOGRAM_BUCKETS] : null;
+            for (int i = 0; i < size; i++) {
+                int index = claimed[i];
+                long slot = address + index * SIZEOF;
+                int nameLength = UNSAFE.getInt(slot + NAME_LENGTH_OFFSET);
+                byte[] name = new byte[nameLength];
+                UNSAFE.copyMemory(null, slot + NAME_OFFSET, name, Unsafe.ARRAY_BYTE_BASE_OFFSET, nameLength);
+                Record record = new Record(name);
+                record.count = counts[index] + UNSAFE.getInt(slot + COUNT_OFFSET);
+                record.sum = sums[index] + UNSAFE.getInt(slot + SUM_OFFSET);
+                record.min = UNSAFE.getShort(slot + MIN_OFFSET);
+                record.max = UNSAFE.getShort(slot + MAX_OFFSET);
+                if (histograms) {
+                    Arrays.fill(histogram, 0);
+                    addHistogram(histogram, i);
+                    record.setPercentiles(histogram);
+                }
+                collector.add(record);
+            }
+        }
     }
 
     private static class Node {
@@ -322,7 +1453,6 @@ public class CalculateAverage_sachinhejip {
 
         Node update(byte b) {
             int mask = 128 + b;
-            // System.out.println(this.index + " > update (" + index + " " + b + ") " + mask + " childNodes[mask] " + childNodes[mask]);
             if (childNodes[mask] == null) {
                 childNodes[mask] = new Node(b);
             }
@@ -333,32 +1463,13 @@ public class CalculateAverage_sachinhejip {
             return "Node : " + record;
         }
 
-        void setRecord(String name, int n, int f) {
+        void setRecord(Object base, long offset, int nameLength, int temperature) {
             if (record == null) {
+                byte[] name = new byte[nameLength];
+                UNSAFE.copyMemory(base, offset, name, Unsafe.ARRAY_BYTE_BASE_OFFSET, nameLength);
                 record = new Record(name);
             }
-            record.update(n, f);
-        }
-
-        void setRecord(MappedByteBuffer buf, int nameStart, int nameEnd, int nStart, int nEnd, int fStart, int end) {
-            // boolean printRecord = false;
-            if (record == null) {
-                byte[] b = new byte[nameEnd - nameStart];
-                buf.get(nameStart, b, 0, b.length);
-                record = new Record(new String(b));
-            }
-            else {
-                // System.out.println("Found repeat");
-                // if (record.name.equals(MARKED_CITY)) {
-                // System.out.println("Node.setRecord - " + record);
-                // printRecord = true;
-                // }
-            }
-
-            record.update(buf, nStart, nEnd, fStart, end);
-            // if (printRecord) {
-            // System.out.println("Node.setRecord - " + record);
-            // }
+            record.update(temperature);
         }
 
         Node merge(Node node) {
@@ -367,14 +1478,7 @@ public class CalculateAverage_sachinhejip {
                     this.record = node.record;
                 }
                 else {
-                    // if (this.record.name.equals(MARKED_CITY)) {
-                    // System.out.println("Node.merge " + this.record);
-                    // System.out.println("Node.merge : " + node.record);
-                    // }
                     this.record.update(node.record);
-                    // if (this.record.name.equals(MARKED_CITY)) {
-                    // System.out.println("Node.merge " + this.record);
-                    // }
                 }
                 for (int i = 0; i < this.childNodes.length; i++) {
                     Node myChildNode = this.childNodes[i];
@@ -400,158 +1504,79 @@ public class CalculateAverage_sachinhejip {
                 }
             }
         }
-
-        public void printResults(PrintStream out) {
-            out.print('{');
-            List<Record> records = new ArrayList<>(100000);
-            collectRecords(records);
-            // records.sort(Comparator.comparing(r -> r.name));
-            // boolean first = true;
-            // for (Record r : records) {
-            // if (!first) {
-            // out.print(", ");
-            // }
-            // r.print(out);
-            // first = false;
-            // }
-            // streaming is faster by a bit (1-2 seconds)
-            boolean[] first = { true };
-            records.stream().sorted(Comparator.comparing(r -> r.name)).forEach(r -> {
-                if (!first[0]) {
-                    out.print(", ");
-                }
-                r.print(out);
-                first[0] = false;
-            });
-            // this.printResultsImpl(out, true);
-            out.print('}');
-        }
-
-        private boolean printResultsImpl(PrintStream out, boolean first) {
-            if (record != null) {
-                if (!first) {
-                    out.print(", ");
-                }
-                record.print(out);
-                first = false;
-            }
-            for (Node childNode : childNodes) {
-                if (childNode != null) {
-                    first &= childNode.printResultsImpl(out, first);
-                }
-            }
-            return first;
-        }
     }
 
     private static class Record {
+        byte[] nameBytes;
         String name;
-        int sumN = 0;
-        int sumF = 0;
-        int count = 0;
-        int minN = Integer.MAX_VALUE;
-        int minF = 9;
-        int maxN = Integer.MIN_VALUE;
-        int maxF = -9;
+        // all in tenths of a degree
+        long sum = 0;
+        long count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        // median, p90 and p99 with --histogram
+        int[] percentiles;
 
-        public Record() {
+        public Record(byte[] nameBytes) {
+            this.nameBytes = nameBytes;
         }
 
-        public Record(String name) {
-            this.name = name;
+        String name() {
+            if (name == null) {
+                name = new String(nameBytes, StandardCharsets.UTF_8);
+            }
+            return name;
         }
 
-        private Record update(int n, int f) {
+        private Record update(int temperature) {
             count += 1;
-            sumN = sumN + n;
-            sumF = sumF + f;
-            if (n < minN || (n == minN && f < minF)) {
-                minN = n;
-                minF = f;
-            }
-            if (n > maxN || (n == maxN && f > maxF)) {
-                maxN = n;
-                maxF = f;
-            }
+            sum += temperature;
+            min = Math.min(min, temperature);
+            max = Math.max(max, temperature);
             return this;
         }
 
-        private Record update(ByteBuffer buf, int numStart, int numEnd, int fStart, int fEnd) {
-            int mult = 1;
-            if (buf.get(numStart) == '-') {
-                mult = -1;
-                numStart = numStart + 1;
-            }
-            int n = 0;
-            int p10 = 1;
-            for (int i = numEnd - 1; i >= numStart; i--) {
-                n += (buf.get(i) - '0') * p10;
-                p10 = p10 * 10;
-            }
-            int f = buf.get(fStart) - '0';
-            n = mult * n;
-            f = mult * f;
-            return update(n, f);
-        }
-
         private Record update(Record record) {
             if (record == null) {
                 return this;
             }
             this.count += record.count;
-            this.sumN += record.sumN;
-            this.sumF += record.sumF;
-            if (record.minN < this.minN || (record.minN == this.minN && record.minF < this.minF)) {
-                this.minN = record.minN;
-                this.minF = record.minF;
-            }
-            if (record.maxN > this.maxN || (record.maxN == this.maxN && record.maxF > this.maxF)) {
-                this.maxN = record.maxN;
-                this.maxF = record.maxF;
-            }
+            this.sum += record.sum;
+            this.min = Math.min(this.min, record.min);
+            this.max = Math.max(this.max, record.max);
             return this;
         }
 
         @Override
         public String toString() {
-            return name + "=" + minN + "." + minF + "/" + sumN + "." + sumF + "/" + count + "/" + maxN + "." + maxF;
-        }
-
-        void print(PrintStream os) {
-            os.print(name);
-            os.print("=");
-            os.print(minN);
-            os.print(".");
-            os.print(minF < 0 ? -1 * minF : minF);
-            os.print("/");
-            if (count > 1) {
-                sumN += sumF / 10;
-                sumF = sumF % 10;
-                int meanN = sumN / count;
-                int carry = (sumN % count) * 10 + sumF;
-                int meanF = carry / count;
-                int meanC = (carry % count);
-                if (meanC > (count / 2)) {
-                    meanF += 1;
-                    if (meanF == 10) {
-                        meanF = 0;
-                        meanN += 1;
-                    }
-                }
-                os.print(meanN);
-                os.print(".");
-                os.print(meanF);
-                os.print("/");
+            return name() + "=" + min + "/" + sum + "/" + count + "/" + max;
+        }
+
+        /**
+         * Sets the median, p90 and p99 by nearest rank from the count of each temperature: the lowest temperature
+         * that at least half (90%, 99%) of the measurements are at or below.
+         */
+        void setPercentiles(long[] histogram) {
+            percentiles = new int[]{ percentile(histogram, 50), percentile(histogram, 90), percentile(histogram, 99) };
+        }
+
+        private int percentile(long[] histogram, int percent) {
+            long rank = Math.max(1, (count * percent + 99) / 100);
+            long seen = 0;
+            int bucket = 0;
+            while ((seen += histogram[bucket]) < rank) {
+                bucket++;
             }
-            else {
-                os.print(sumN);
-                os.print(".");
-                os.print(sumF);
-                os.print("/");
+            return bucket + MIN_TEMPERATURE;
+        }
+
+        void write(ResultWriter out) {
+            out.add(nameBytes, min, ResultWriter.meanTenths(sum, count), max);
+            if (percentiles != null) {
+                for (int percentile : percentiles) {
+                    out.addColumn(percentile);
+                }
             }
-            os.print(maxN);
-            os.print(".");
-            os.print(maxF < 0 ? -1 * maxF : maxF);
         }
     }
 
@@ -560,4 +1585,21 @@ public class CalculateAverage_sachinhejip {
         IN_N,
         IN_F
     }
+
+    enum TABLE {
+        TRIE,
+        OFF_HEAP
+    }
+
+    enum PARSER {
+        BYTES,
+        SWAR,
+        VECTOR
+    }
+
+    enum MAPPING {
+        CHANNEL,
+        NATIVE,
+        POPULATE
+    }
 }
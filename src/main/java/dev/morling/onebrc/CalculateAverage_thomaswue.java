@@ -41,11 +41,11 @@ public class CalculateAverage_thomaswue {
     private static final String FILE = "./measurements.txt";
 
     // Holding the current result for a single city.
-    private static class Result {
+    static class Result {
         long lastNameLong, secondLastNameLong, nameAddress;
         int nameLength, remainingShift;
-        int min, max, count;
-        long sum;
+        int min, max;
+        long count, sum;
 
         private Result(long nameAddress) {
             this.nameAddress = nameAddress;
@@ -75,9 +75,15 @@ public class CalculateAverage_thomaswue {
     }
 
     public static void main(String[] args) throws IOException {
+        // Final output.
+        System.out.println(aggregate(Path.of(FILE), Arena.global()));
+    }
+
+    // Maps the file into the arena, which has to stay open until the results are no longer used.
+    private static TreeMap<String, Result> aggregate(Path file, Arena arena) throws IOException {
         // Calculate input segments.
         int numberOfChunks = Runtime.getRuntime().availableProcessors();
-        long[] chunks = getSegments(numberOfChunks);
+        long[] chunks = getSegments(file, numberOfChunks, arena);
 
         // Parallel processing of segments.
         List<List<Result>> allResults = IntStream.range(0, chunks.length - 1).mapToObj(chunkIndex -> parseLoop(chunks[chunkIndex], chunks[chunkIndex + 1]))
@@ -91,8 +97,27 @@ public class CalculateAverage_thomaswue {
                     return results;
                 }).parallel().toList();
 
-        // Final output.
-        System.out.println(accumulateResults(allResults));
+        return accumulateResults(allResults);
+    }
+
+    /**
+     * Runs this implementation through {@link AggregationEngine}.
+     */
+    public static final class Engine implements AggregationEngine {
+
+        @Override
+        public String name() {
+            return "thomaswue";
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) throws IOException {
+            List<StationAggregator.Station> stations = new ArrayList<>();
+            try (Arena arena = Arena.ofShared()) {
+                aggregate(input, arena).forEach((name, r) -> stations.add(StationAggregator.Station.ofTenths(name, r.min, r.sum, r.count, r.max)));
+            }
+            return new StationAggregator.Result(stations);
+        }
     }
 
     // Accumulate results sequentially for simplicity.
@@ -214,14 +239,14 @@ public class CalculateAverage_thomaswue {
         record(existingResult, number);
     }
 
-    private static void record(Result existingResult, int number) {
+    static void record(Result existingResult, int number) {
         existingResult.min = Math.min(existingResult.min, number);
         existingResult.max = Math.max(existingResult.max, number);
         existingResult.sum += number;
         existingResult.count++;
     }
 
-    private static int hashToIndex(long hash, Result[] results) {
+    static int hashToIndex(long hash, Result[] results) {
         int hashAsInt = (int) (hash ^ (hash >>> 32));
         int finalHash = (hashAsInt ^ (hashAsInt >>> 18));
         return (finalHash & (results.length - 1));
@@ -233,7 +258,7 @@ public class CalculateAverage_thomaswue {
 
     // Special method to convert a number in the specific format into an int value without branches created by
     // Quan Anh Mai.
-    private static int convertIntoNumber(int decimalSepPos, long numberWord) {
+    static int convertIntoNumber(int decimalSepPos, long numberWord) {
         int shift = 28 - decimalSepPos;
         // signed is -1 if negative, 0 otherwise
         long signed = (~numberWord << 59) >> 63;
@@ -255,13 +280,13 @@ public class CalculateAverage_thomaswue {
         return (int) value;
     }
 
-    private static int findDelimiter(long word) {
+    static int findDelimiter(long word) {
         long input = word ^ 0x3B3B3B3B3B3B3B3BL;
         long tmp = (input - 0x0101010101010101L) & ~input & 0x8080808080808080L;
         return Long.numberOfTrailingZeros(tmp) >>> 3;
     }
 
-    private static Result newEntry(Result[] results, long nameAddress, int hash, int nameLength, Scanner scanner) {
+    static Result newEntry(Result[] results, long nameAddress, int hash, int nameLength, Scanner scanner) {
         Result r = new Result(nameAddress);
         results[hash] = r;
 
@@ -275,12 +300,12 @@ public class CalculateAverage_thomaswue {
         return r;
     }
 
-    private static long[] getSegments(int numberOfChunks) throws IOException {
-        try (var fileChannel = FileChannel.open(Path.of(FILE), StandardOpenOption.READ)) {
+    private static long[] getSegments(Path file, int numberOfChunks, Arena arena) throws IOException {
+        try (var fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
             long fileSize = fileChannel.size();
             long segmentSize = (fileSize + numberOfChunks - 1) / numberOfChunks;
             long[] chunks = new long[numberOfChunks + 1];
-            long mappedAddress = fileChannel.map(MapMode.READ_ONLY, 0, fileSize, Arena.global()).address();
+            long mappedAddress = fileChannel.map(MapMode.READ_ONLY, 0, fileSize, arena).address();
             chunks[0] = mappedAddress;
             long endAddress = mappedAddress + fileSize;
             Scanner s = new Scanner(mappedAddress, mappedAddress + fileSize);
@@ -297,7 +322,7 @@ public class CalculateAverage_thomaswue {
         }
     }
 
-    private static class Scanner {
+    static class Scanner {
 
         private static final Unsafe UNSAFE = initUnsafe();
 
@@ -0,0 +1,422 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times engines on a grid of generated datasets rather than on the 413 stations of {@code measurements.txt} only:
+ *
+ * <pre>
+ * ./benchmark_matrix.sh --engines=thomaswue,sachinhejip --rows=10M,100M
+ * </pre>
+ *
+ * The axes are the number of distinct stations ({@code --keys}, default 413, 10000 and 1000000), how long their
+ * names are ({@code --names}: {@code short} is 3-10 bytes, {@code mixed} 1-100 and {@code long} 90-100, default all
+ * three) and the number of rows ({@code --rows}, default 10M, 100M and 1B). Datasets are generated once with a fixed
+ * seed into {@code --cache} (default {@code datasets}) along with their expected output, so every run is checked.
+ * <p>
+ * Each engine runs on each dataset through {@link BenchmarkRunner} in a JVM of its own, with this JVM's options, so
+ * that an engine that crashes or hangs on a grid cell doesn't take the others down. The throughput of the median run
+ * is printed as a Markdown heat map per engine and row count, shaded relative to that engine's best cell, and
+ * written as JSON. The runs are appended to {@code --history} like {@link BenchmarkRunner} does.
+ */
+public final class DatasetMatrix {
+
+    static final Path DEFAULT_CACHE = Path.of("datasets");
+    static final int DEFAULT_RUNS = 3;
+    static final long SEED = 42;
+    private static final String SHADES = "░▒▓█";
+
+    enum Names {
+        SHORT(3, 10),
+        MIXED(1, 100),
+        LONG(90, 100);
+
+        final int minBytes;
+        final int maxBytes;
+
+        Names(int minBytes, int maxBytes) {
+            this.minBytes = minBytes;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    record Dataset(int keys, Names names, long rows) {
+
+        String fileName() {
+            return "measurements-" + keys + "-" + names + "-" + count(rows) + ".txt";
+        }
+
+        /**
+         * Roughly the size of the file: the name, the separator, a temperature of 3 to 5 bytes and the line end.
+         */
+        long estimatedBytes() {
+            return rows * ((names.minBytes + names.maxBytes) / 2 + 1 + 4 + 1);
+        }
+    }
+
+    /**
+     * How one engine did on one dataset, with the median in milliseconds if it passed.
+     */
+    record Cell(String engine, Dataset dataset, String status, double medianMillis) {
+
+        double rowsPerSecond() {
+            return dataset.rows() / (medianMillis / 1000);
+        }
+    }
+
+    private DatasetMatrix() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<String> engines = AggregationEngines.all().stream().map(AggregationEngine::name).toList();
+        List<Integer> keys = List.of(413, 10_000, 1_000_000);
+        List<Names> names = List.of(Names.values());
+        List<Long> rows = List.of(10_000_000L, 100_000_000L, 1_000_000_000L);
+        Path cache = DEFAULT_CACHE;
+        int warmup = BenchmarkRunner.DEFAULT_WARMUP;
+        int runs = DEFAULT_RUNS;
+        String cpus = BenchmarkRunner.DEFAULT_CPUS;
+        Path json = Path.of("matrix-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")) + ".json");
+        Path history = BenchmarkHistory.DEFAULT_HISTORY;
+        Duration timeout = BenchmarkRunner.DEFAULT_TIMEOUT;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--engines=")) {
+                engines = List.of(value.split(","));
+                engines.forEach(AggregationEngines::named);
+            }
+            else if (arg.startsWith("--keys=")) {
+                keys = Arrays.stream(value.split(",")).map(k -> Math.toIntExact(parseCount(k))).toList();
+            }
+            else if (arg.startsWith("--names=")) {
+                names = Arrays.stream(value.split(",")).map(n -> Names.valueOf(n.toUpperCase(Locale.ROOT))).toList();
+            }
+            else if (arg.startsWith("--rows=")) {
+                rows = Arrays.stream(value.split(",")).map(DatasetMatrix::parseCount).toList();
+            }
+            else if (arg.startsWith("--cache=")) {
+                cache = Path.of(value);
+            }
+            else if (arg.startsWith("--json=")) {
+                json = Path.of(value);
+            }
+            else if (arg.startsWith("--history=")) {
+                history = value.isEmpty() ? null : Path.of(value);
+            }
+            else if (arg.startsWith("--timeout=")) {
+                timeout = Duration.ofSeconds(Long.parseLong(value));
+            }
+            else if (arg.startsWith("--warmup=")) {
+                warmup = Integer.parseInt(value);
+            }
+            else if (arg.startsWith("--runs=")) {
+                runs = Integer.parseInt(value);
+            }
+            else if (arg.startsWith("--cpus=")) {
+                cpus = value;
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --engines=, --keys=, --names=, --rows=, --cache=, --json=, "
+                        + "--history=, --warmup=, --runs=, --timeout= or --cpus=");
+            }
+        }
+
+        List<Dataset> datasets = new ArrayList<>();
+        for (long r : rows) {
+            for (int k : keys) {
+                for (Names n : names) {
+                    datasets.add(new Dataset(k, n, r));
+                }
+            }
+        }
+        Files.createDirectories(cache);
+        long missing = 0;
+        for (Dataset dataset : datasets) {
+            if (!Files.exists(cache.resolve(dataset.fileName()))) {
+                missing += dataset.estimatedBytes();
+            }
+        }
+        long usable = Files.getFileStore(cache).getUsableSpace();
+        if (missing > usable) {
+            throw new IllegalStateException("Generating the datasets takes about " + missing / (1 << 30) + " GB, but only " + usable / (1 << 30)
+                    + " GB are free in " + cache + ". Pass fewer --rows, --keys or --names.");
+        }
+
+        BenchmarkRunner.Options options = new BenchmarkRunner.Options(null, warmup, runs, timeout, cpus, null, history, false);
+        List<Cell> cells = new ArrayList<>();
+        for (Dataset dataset : datasets) {
+            Path file = generate(cache, dataset);
+            for (String engine : engines) {
+                Cell cell = run(engine, dataset, file, cache, options);
+                System.err.printf(Locale.ROOT, "%s on %s: %s%n", engine, dataset.fileName(),
+                        cell.status().equals("ok") ? String.format(Locale.ROOT, "%.1f M rows/s", cell.rowsPerSecond() / 1e6) : cell.status());
+                cells.add(cell);
+            }
+        }
+        // the shades aren't in every locale's charset, so past System.out as UTF-8
+        OutputStream out = ResultWriter.standardOut();
+        out.write(heatMaps(cells, engines, keys, names, rows).getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        Files.writeString(json, json(cells), StandardCharsets.UTF_8);
+        System.err.println("Wrote " + json);
+    }
+
+    /**
+     * Returns the dataset's file, generating it and the {@code .out} file next to it unless cached.
+     */
+    static Path generate(Path cache, Dataset dataset) throws IOException {
+        Path file = cache.resolve(dataset.fileName());
+        if (Files.exists(file)) {
+            return file;
+        }
+        System.err.println("Generating " + file);
+        SplittableRandom random = new SplittableRandom(SEED);
+        byte[][] stations = new byte[dataset.keys()][];
+        double[] means = new double[dataset.keys()];
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < stations.length; i++) {
+            String name;
+            do {
+                name = name(random, dataset.names());
+            } while (!taken.add(name));
+            stations[i] = name.getBytes(StandardCharsets.UTF_8);
+            means[i] = random.nextDouble(-30, 40);
+        }
+
+        long[] min = new long[stations.length];
+        long[] max = new long[stations.length];
+        long[] sum = new long[stations.length];
+        long[] count = new long[stations.length];
+        Arrays.fill(min, Long.MAX_VALUE);
+        Arrays.fill(max, Long.MIN_VALUE);
+        // written next to the file and moved into place once complete, so that a cached file is always whole
+        Path partial = cache.resolve(dataset.fileName() + ".partial");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(partial), 1 << 20)) {
+            byte[] temperature = new byte[6];
+            for (long row = 0; row < dataset.rows(); row++) {
+                int station = random.nextInt(stations.length);
+                long tenths = Math.max(-999, Math.min(999, Math.round((means[station] + random.nextGaussian() * 10) * 10)));
+                min[station] = Math.min(min[station], tenths);
+                max[station] = Math.max(max[station], tenths);
+                sum[station] += tenths;
+                count[station]++;
+                out.write(stations[station]);
+                int pos = temperature.length;
+                long abs = Math.abs(tenths);
+                temperature[--pos] = '\n';
+                temperature[--pos] = (byte) ('0' + abs % 10);
+                temperature[--pos] = '.';
+                temperature[--pos] = (byte) ('0' + abs / 10 % 10);
+                if (abs >= 100) {
+                    temperature[--pos] = (byte) ('0' + abs / 100);
+                }
+                if (tenths < 0) {
+                    temperature[--pos] = '-';
+                }
+                out.write(';');
+                out.write(temperature, pos, temperature.length - pos);
+            }
+        }
+
+        List<StationAggregator.Station> result = new ArrayList<>();
+        for (int i = 0; i < stations.length; i++) {
+            if (count[i] > 0) {
+                result.add(StationAggregator.Station.ofTenths(new String(stations[i], StandardCharsets.UTF_8), min[i], sum[i], count[i], max[i]));
+            }
+        }
+        Path expected = cache.resolve(dataset.fileName().replaceFirst("\\.txt$", ".out"));
+        Files.writeString(expected, new StationAggregator.Result(result) + "\n", StandardCharsets.UTF_8);
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    /**
+     * Returns a name of letters whose length in bytes is drawn uniformly from the distribution's range. Mixed names
+     * have some two byte letters, like the accented names of the weather stations.
+     */
+    static String name(SplittableRandom random, Names names) {
+        int bytes = random.nextInt(names.minBytes, names.maxBytes + 1);
+        StringBuilder name = new StringBuilder(bytes);
+        name.append((char) ('A' + random.nextInt(26)));
+        for (int length = 1; length < bytes;) {
+            if (names == Names.MIXED && length + 2 <= bytes && random.nextInt(8) == 0) {
+                name.append((char) ('à' + random.nextInt(26)));
+                length += 2;
+            }
+            else {
+                name.append((char) ('a' + random.nextInt(26)));
+                length++;
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Runs the engine on the dataset in a new JVM with the warm-up, runs, timeout and CPUs of the options, and
+     * appends its runs to their history unless that is null. The JVM writes any crash log to the cache.
+     */
+    private static Cell run(String engine, Dataset dataset, Path file, Path cache, BenchmarkRunner.Options options) throws IOException, InterruptedException {
+        Path runHistory = Files.createTempFile("matrix", ".jsonl");
+        Path runJson = Files.createTempFile("matrix", ".json");
+        Path runOutput = Files.createTempFile("matrix", ".md");
+        try {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-XX:ErrorFile=" + cache.toAbsolutePath().resolve("hs_err_pid%p.log"));
+            command.addAll(List.of("--class-path", System.getProperty("java.class.path"), BenchmarkRunner.class.getName(), "--input=" + file,
+                    "--json=" + runJson, "--history=" + runHistory));
+            command.addAll(List.of("--warmup=" + options.warmup(), "--runs=" + options.runs(), "--timeout=" + options.timeout().toSeconds(),
+                    "--cpus=" + options.cpus()));
+            command.add(BenchmarkRunner.ENGINE_PREFIX + engine);
+            Process process = new ProcessBuilder(command).redirectOutput(runOutput.toFile()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            // the runner times out each run on its own, this is in case it doesn't get to exit
+            if (!process.waitFor(options.timeout().multipliedBy(options.warmup() + options.runs() + 1).toNanos(), TimeUnit.NANOSECONDS)) {
+                process.destroyForcibly();
+                return new Cell(engine, dataset, "hung", Double.NaN);
+            }
+            List<BenchmarkHistory.Entry> entries = BenchmarkHistory.read(runHistory);
+            if (entries.isEmpty()) {
+                return new Cell(engine, dataset, status(Files.readString(runOutput, StandardCharsets.UTF_8), process.exitValue()), Double.NaN);
+            }
+            if (options.history() != null) {
+                BenchmarkHistory.append(options.history(), entries);
+            }
+            return new Cell(engine, dataset, "ok", BenchmarkRunner.Summary.of(entries.getFirst().millis()).median());
+        }
+        finally {
+            Files.deleteIfExists(runHistory);
+            Files.deleteIfExists(runJson);
+            Files.deleteIfExists(runOutput);
+        }
+    }
+
+    /**
+     * Returns the status column of the runner's only result row, or how the runner exited if it printed none.
+     */
+    private static String status(String markdown, int exitValue) {
+        for (String line : markdown.split("\n")) {
+            if (line.startsWith("| " + BenchmarkRunner.ENGINE_PREFIX)) {
+                String[] columns = line.split("\\|");
+                return columns[columns.length - 1].isBlank() ? columns[columns.length - 2].strip() : columns[columns.length - 1].strip();
+            }
+        }
+        return "crashed, exit status " + exitValue;
+    }
+
+    static String heatMaps(List<Cell> cells, List<String> engines, List<Integer> keys, List<Names> names, List<Long> rows) {
+        StringBuilder out = new StringBuilder();
+        for (String engine : engines) {
+            double best = cells.stream().filter(c -> c.engine().equals(engine) && c.status().equals("ok")).mapToDouble(Cell::rowsPerSecond).max().orElse(1);
+            out.append("## ").append(engine).append("\n\n");
+            for (long r : rows) {
+                out.append("M rows/s on ").append(count(r)).append(" rows, shaded relative to the best of ").append(String.format(Locale.ROOT, "%.1f", best / 1e6))
+                        .append(":\n\n");
+                out.append("| keys \\ names |");
+                names.forEach(n -> out.append(' ').append(n).append(" |"));
+                out.append("\n|---:|");
+                names.forEach(n -> out.append("---:|"));
+                out.append('\n');
+                for (int k : keys) {
+                    out.append("| ").append(count(k)).append(" |");
+                    for (Names n : names) {
+                        Dataset dataset = new Dataset(k, n, r);
+                        Cell cell = cells.stream().filter(c -> c.engine().equals(engine) && c.dataset().equals(dataset)).findFirst().orElseThrow();
+                        if (cell.status().equals("ok")) {
+                            double share = cell.rowsPerSecond() / best;
+                            char shade = SHADES.charAt(Math.max(0, (int) Math.ceil(share * SHADES.length()) - 1));
+                            out.append(String.format(Locale.ROOT, " %c %.1f |", shade, cell.rowsPerSecond() / 1e6));
+                        }
+                        else {
+                            out.append(" ✗ ").append(cell.status()).append(" |");
+                        }
+                    }
+                    out.append('\n');
+                }
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    static String json(List<Cell> cells) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < cells.size(); i++) {
+            Cell cell = cells.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("  { \"engine\": ").append(BenchmarkRunner.quote(cell.engine()))
+                    .append(", \"keys\": ").append(cell.dataset().keys())
+                    .append(", \"names\": ").append(BenchmarkRunner.quote(cell.dataset().names().toString()))
+                    .append(", \"rows\": ").append(cell.dataset().rows())
+                    .append(", \"status\": ").append(BenchmarkRunner.quote(cell.status()))
+                    .append(", \"medianMillis\": ").append(BenchmarkRunner.number(cell.medianMillis()))
+                    .append(", \"rowsPerSecond\": ").append(BenchmarkRunner.number(cell.status().equals("ok") ? cell.rowsPerSecond() : Double.NaN))
+                    .append(" }");
+        }
+        return json.append("\n]\n").toString();
+    }
+
+    /**
+     * Parses counts such as {@code 413}, {@code 10k}, {@code 100M} or {@code 1B}.
+     */
+    static long parseCount(String count) {
+        long unit = switch (Character.toUpperCase(count.charAt(count.length() - 1))) {
+            case 'K' -> 1_000L;
+            case 'M' -> 1_000_000L;
+            case 'B' -> 1_000_000_000L;
+            default -> 1;
+        };
+        return Long.parseLong(unit == 1 ? count : count.substring(0, count.length() - 1)) * unit;
+    }
+
+    static String count(long count) {
+        if (count >= 1_000_000_000L && count % 1_000_000_000L == 0) {
+            return count / 1_000_000_000L + "B";
+        }
+        if (count >= 1_000_000 && count % 1_000_000 == 0) {
+            return count / 1_000_000 + "M";
+        }
+        if (count >= 1_000 && count % 1_000 == 0) {
+            return count / 1_000 + "k";
+        }
+        return Long.toString(count);
+    }
+}
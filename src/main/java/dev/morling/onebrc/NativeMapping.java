@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Maps a file read-only with {@code mmap} called through the {@link Linker}, rather than through
+ * {@link java.nio.channels.FileChannel#map}, so that the mapping can be advised ({@code MADV_SEQUENTIAL},
+ * {@code MADV_WILLNEED} and {@code MADV_HUGEPAGE}) and optionally populated up front with {@code MAP_POPULATE}
+ * instead of faulting in page by page on first touch. Linux only.
+ */
+final class NativeMapping {
+
+    // from <fcntl.h> and <sys/mman.h> on Linux
+    private static final int O_RDONLY = 0;
+    private static final int PROT_READ = 0x1;
+    private static final int MAP_PRIVATE = 0x2;
+    private static final int MAP_POPULATE = 0x8000;
+    private static final int MADV_SEQUENTIAL = 2;
+    private static final int MADV_WILLNEED = 3;
+    private static final int MADV_HUGEPAGE = 14;
+    private static final long MAP_FAILED = -1;
+
+    private static final Linker LINKER = Linker.nativeLinker();
+    static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+    static final VarHandle ERRNO = CALL_STATE.varHandle(MemoryLayout.PathElement.groupElement("errno"));
+    // open(const char *, int, ...) is variadic, and called without a mode
+    private static final MethodHandle OPEN = downcall("open", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT), true,
+            Linker.Option.firstVariadicArg(2));
+    private static final MethodHandle CLOSE = downcall("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT), true);
+    private static final MethodHandle MMAP = downcall("mmap",
+            FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG), true);
+    private static final MethodHandle MADVISE = downcall("madvise", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, JAVA_INT), false);
+    private static final MethodHandle MUNMAP = downcall("munmap", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG), true);
+    private static final MethodHandle GETPAGESIZE = downcall("getpagesize", FunctionDescriptor.of(JAVA_INT), false);
+    static final long PAGE_SIZE = pageSize();
+
+    private NativeMapping() {
+    }
+
+    static MethodHandle downcall(String name, FunctionDescriptor descriptor, boolean errno, Linker.Option... options) {
+        MemorySegment function = LINKER.defaultLookup().find(name).orElseThrow(() -> new UnsupportedOperationException(name + " not found"));
+        if (errno) {
+            options = Arrays.copyOf(options, options.length + 1);
+            options[options.length - 1] = Linker.Option.captureCallState("errno");
+        }
+        return LINKER.downcallHandle(function, descriptor, options);
+    }
+
+    private static long pageSize() {
+        try {
+            return (int) GETPAGESIZE.invokeExact();
+        }
+        catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Maps [from, to) of the file, advised for reading it once from start to end. The mapping starts at the page
+     * {@code from} is on and is unmapped when the arena is closed.
+     *
+     * @param populate whether to read the whole range in before returning ({@code MAP_POPULATE})
+     */
+    static MemorySegment map(Path file, long from, long to, Arena arena, boolean populate) throws IOException {
+        if (from == to) {
+            return MemorySegment.NULL;
+        }
+        long offset = from - from % PAGE_SIZE;
+        long length = to - offset;
+        try (Arena call = Arena.ofConfined()) {
+            MemorySegment callState = call.allocate(CALL_STATE);
+            int fd = open(file);
+            MemorySegment address;
+            try {
+                int flags = MAP_PRIVATE | (populate ? MAP_POPULATE : 0);
+                address = (MemorySegment) MMAP.invokeExact(callState, MemorySegment.NULL, length, PROT_READ, flags, fd, offset);
+            }
+            finally {
+                // the mapping keeps the file open on its own
+                close(fd);
+            }
+            if (address.address() == MAP_FAILED) {
+                throw new IOException("Can't map " + file + ", errno " + (int) ERRNO.get(callState));
+            }
+            // only advice, so a kernel that doesn't take one (such as huge pages for files) is simply not advised
+            for (int advice : new int[]{ MADV_SEQUENTIAL, MADV_WILLNEED, MADV_HUGEPAGE }) {
+                int advised = (int) MADVISE.invokeExact(address, length, advice);
+            }
+            return address.reinterpret(length, arena, mapping -> unmap(mapping, length)).asSlice(from - offset);
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Opens the file for reading and returns its file descriptor, to be closed with {@link #close(int)}.
+     */
+    static int open(Path file) throws IOException {
+        try (Arena call = Arena.ofConfined()) {
+            MemorySegment callState = call.allocate(CALL_STATE);
+            int fd = (int) OPEN.invokeExact(callState, call.allocateUtf8String(file.toString()), O_RDONLY);
+            if (fd < 0) {
+                throw new IOException("Can't open " + file + ", errno " + (int) ERRNO.get(callState));
+            }
+            return fd;
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void close(int fd) throws IOException {
+        try (Arena call = Arena.ofConfined()) {
+            MemorySegment callState = call.allocate(CALL_STATE);
+            if ((int) CLOSE.invokeExact(callState, fd) != 0) {
+                throw new IOException("Can't close file descriptor " + fd + ", errno " + (int) ERRNO.get(callState));
+            }
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Unmaps a mapping when its arena is closed. A failure is only reported, as the arena is closed regardless and
+     * throwing would skip the arena's other cleanups.
+     */
+    private static void unmap(MemorySegment address, long length) {
+        try (Arena call = Arena.ofConfined()) {
+            MemorySegment callState = call.allocate(CALL_STATE);
+            if ((int) MUNMAP.invokeExact(callState, address, length) != 0) {
+                System.err.println("Can't unmap " + length + " bytes at 0x" + Long.toHexString(address.address()) + ", errno "
+                        + (int) ERRNO.get(callState));
+            }
+        }
+        catch (RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
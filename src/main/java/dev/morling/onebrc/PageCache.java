@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Evicts files from the page cache with {@code posix_fadvise(POSIX_FADV_DONTNEED)} called through FFM, so that
+ * benchmarks can measure cold cache runs without root (as dropping every cache through
+ * {@code /proc/sys/vm/drop_caches} would need):
+ *
+ * <pre>
+ * java --enable-preview -cp ... dev.morling.onebrc.PageCache measurements.txt
+ * </pre>
+ *
+ * prints how much of each file is still cached afterwards (pages mapped by a running process or dirty pages that
+ * couldn't be written stay cached), and {@code --resident} only prints that. Linux only.
+ */
+public final class PageCache {
+
+    // from <fcntl.h> on Linux
+    private static final int POSIX_FADV_DONTNEED = 4;
+
+    private static final MethodHandle FDATASYNC = NativeMapping.downcall("fdatasync", FunctionDescriptor.of(JAVA_INT, JAVA_INT), true);
+    private static final MethodHandle POSIX_FADVISE = NativeMapping.downcall("posix_fadvise",
+            FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, JAVA_LONG, JAVA_INT), false);
+    private static final MethodHandle MINCORE = NativeMapping.downcall("mincore", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG, ADDRESS), true);
+
+    private PageCache() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean evict = true;
+        int files = 0;
+        for (String arg : args) {
+            if (arg.equals("--resident")) {
+                evict = false;
+                continue;
+            }
+            Path file = Path.of(arg);
+            if (evict) {
+                evict(file);
+            }
+            System.err.printf(Locale.ROOT, "%s: %.1f%% of %d MB cached%n", file, 100 * residentFraction(file), Files.size(file) / (1024 * 1024));
+            files++;
+        }
+        if (files == 0) {
+            throw new IllegalArgumentException("Expected [--resident] <file> ...");
+        }
+    }
+
+    /**
+     * Writes back the file's dirty pages, if any, and drops all of its pages from the page cache that no process
+     * has mapped.
+     */
+    static void evict(Path file) throws IOException {
+        int fd = NativeMapping.open(file);
+        try (Arena call = Arena.ofConfined()) {
+            MemorySegment callState = call.allocate(NativeMapping.CALL_STATE);
+            if ((int) FDATASYNC.invokeExact(callState, fd) != 0) {
+                throw new IOException("Can't sync " + file + ", errno " + (int) NativeMapping.ERRNO.get(callState));
+            }
+            // returns the error number instead of setting errno
+            int error = (int) POSIX_FADVISE.invokeExact(fd, 0L, 0L, POSIX_FADV_DONTNEED);
+            if (error != 0) {
+                throw new IOException("Can't evict " + file + ", error " + error);
+            }
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        finally {
+            NativeMapping.close(fd);
+        }
+    }
+
+    /**
+     * Returns the share of the file's pages in the page cache, as found by {@code mincore} on a mapping of it that
+     * is never read.
+     */
+    static double residentFraction(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ); Arena arena = Arena.ofConfined()) {
+            long size = channel.size();
+            if (size == 0) {
+                return 0;
+            }
+            long pageSize = NativeMapping.PAGE_SIZE;
+            long pages = (size + pageSize - 1) / pageSize;
+            MemorySegment mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            MemorySegment resident = arena.allocate(pages);
+            MemorySegment callState = arena.allocate(NativeMapping.CALL_STATE);
+            if ((int) MINCORE.invokeExact(callState, mapping, size, resident) != 0) {
+                throw new IOException("Can't tell what is cached of " + file + ", errno " + (int) NativeMapping.ERRNO.get(callState));
+            }
+            long cached = 0;
+            for (long page = 0; page < pages; page++) {
+                cached += resident.get(JAVA_BYTE, page) & 1;
+            }
+            return (double) cached / pages;
+        }
+        catch (IOException | RuntimeException | Error e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
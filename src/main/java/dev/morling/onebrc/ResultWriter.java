@@ -0,0 +1,147 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Formats the result, {@code {<station>=<min>/<mean>/<max>, ...}}, into a single growable byte[] and writes it
+ * in one call, instead of printing it field by field through {@link System#out}, which takes a lock and encodes
+ * chars on every call. Names are added as UTF-8 bytes and temperatures as tenths of a degree, so formatting
+ * a station goes through neither double nor String.
+ */
+final class ResultWriter {
+    // ", ", '=' and two '/' around three numbers, a long of tenths taking at most 21 bytes
+    private static final int MAX_NUMBERS_LENGTH = 5 + 3 * 21;
+
+    private byte[] bytes;
+    private int size;
+    private boolean first = true;
+
+    /**
+     * @param stations the expected number of stations, to size the buffer up front
+     */
+    ResultWriter(int stations) {
+        bytes = new byte[Math.max(64, stations * 32)];
+        bytes[size++] = '{';
+    }
+
+    /**
+     * Returns standard out as a plain stream, for writing the result past {@link System#out} (which is flushed
+     * first, so that nothing printed before ends up after the result).
+     */
+    static OutputStream standardOut() {
+        System.out.flush();
+        return new FileOutputStream(FileDescriptor.out);
+    }
+
+    /**
+     * Returns the mean of {@code sum} over {@code count}, rounded half up like {@link Math#round(double)}.
+     */
+    static long meanTenths(long sum, long count) {
+        return Math.floorDiv(2 * sum + count, 2 * count);
+    }
+
+    ResultWriter add(byte[] name, long minTenths, long meanTenths, long maxTenths) {
+        ensureCapacity(name.length + MAX_NUMBERS_LENGTH);
+        if (!first) {
+            bytes[size++] = ',';
+            bytes[size++] = ' ';
+        }
+        first = false;
+        System.arraycopy(name, 0, bytes, size, name.length);
+        size += name.length;
+        bytes[size++] = '=';
+        putTenths(minTenths);
+        bytes[size++] = '/';
+        putTenths(meanTenths);
+        bytes[size++] = '/';
+        putTenths(maxTenths);
+        return this;
+    }
+
+    /**
+     * Appends another temperature to the station added last, as in {@code <min>/<mean>/<max>/<median>}.
+     */
+    ResultWriter addColumn(long tenths) {
+        ensureCapacity(MAX_NUMBERS_LENGTH);
+        bytes[size++] = '/';
+        putTenths(tenths);
+        return this;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, end(false));
+        out.flush();
+    }
+
+    /**
+     * Writes the result followed by a newline, like {@code System.out.println} would.
+     */
+    void writeLineTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, end(true));
+        out.flush();
+    }
+
+    void writeTo(WritableByteChannel out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, end(false));
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    // Puts the closing brace (and newline) after the stations without keeping them, so more can still be added
+    private int end(boolean newLine) {
+        ensureCapacity(2);
+        int end = size;
+        bytes[end++] = '}';
+        if (newLine) {
+            bytes[end++] = '\n';
+        }
+        return end;
+    }
+
+    private void putTenths(long tenths) {
+        if (tenths < 0) {
+            bytes[size++] = '-';
+            tenths = -tenths;
+        }
+        long whole = tenths / 10;
+        int digits = 1;
+        for (long rest = whole / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        }
+        size += digits;
+        bytes[size++] = '.';
+        bytes[size++] = (byte) ('0' + tenths % 10);
+    }
+
+    private void ensureCapacity(int length) {
+        if (size + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, size + length));
+        }
+    }
+}
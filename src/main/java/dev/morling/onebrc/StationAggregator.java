@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Aggregates measurements ({@code <station>;<temperature>} lines) in-process, so that a long running JVM can
+ * answer many queries with an engine that is already JIT compiled instead of starting a
+ * {@code CalculateAverage_*} per file. Backed by {@link CalculateAverage_sachinhejip}, which needs
+ * {@code --enable-preview}.
+ */
+public final class StationAggregator {
+
+    private StationAggregator() {
+    }
+
+    /**
+     * @param threads the number of threads parsing a path, segment or file channel in parallel
+     * @param executor runs the parsing threads other than the calling one. By default each is a new thread, while
+     *            a pool keeps them from one aggregation to the next
+     */
+    public record Options(int threads, Executor executor) {
+
+        public Options {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+            }
+            Objects.requireNonNull(executor, "executor");
+        }
+
+        public Options(int threads) {
+            this(threads, CalculateAverage_sachinhejip.NEW_THREADS);
+        }
+
+        public static Options defaults() {
+            return new Options(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * The aggregate of one station, with temperatures in degrees rounded to one decimal like the 1BRC output.
+     */
+    public record Station(String name, double min, double mean, double max, long count) {
+
+        /**
+         * Returns a station from temperatures in tenths of a degree, its mean rounded half up like the 1BRC output.
+         */
+        static Station ofTenths(String name, long minTenths, long sumTenths, long count, long maxTenths) {
+            return new Station(name, minTenths / 10.0, ResultWriter.meanTenths(sumTenths, count) / 10.0, maxTenths / 10.0, count);
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + min + "/" + mean + "/" + max;
+        }
+    }
+
+    /**
+     * The stations of one aggregation, sorted by name. {@link #toString()} is the 1BRC output.
+     */
+    public static final class Result implements Iterable<Station> {
+        private final SortedMap<String, Station> stations;
+
+        Result(List<Station> stations) {
+            TreeMap<String, Station> byName = new TreeMap<>();
+            for (Station station : stations) {
+                byName.put(station.name(), station);
+            }
+            this.stations = Collections.unmodifiableSortedMap(byName);
+        }
+
+        /**
+         * Returns the station with the given name, or null if there were no measurements for it.
+         */
+        public Station get(String name) {
+            return stations.get(name);
+        }
+
+        public int size() {
+            return stations.size();
+        }
+
+        @Override
+        public Iterator<Station> iterator() {
+            return stations.values().iterator();
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner(", ", "{", "}");
+            stations.values().forEach(station -> joiner.add(station.toString()));
+            return joiner.toString();
+        }
+    }
+
+    public static Result aggregate(Path file) throws IOException {
+        return aggregate(file, Options.defaults());
+    }
+
+    public static Result aggregate(Path file, Options options) throws IOException {
+        return CalculateAverage_sachinhejip.aggregate(file, options.threads(), options.executor());
+    }
+
+    /**
+     * Aggregates the lines of a segment. A heap segment is copied off-heap first.
+     */
+    public static Result aggregate(MemorySegment segment, Options options) throws IOException {
+        return CalculateAverage_sachinhejip.aggregate(segment, options.threads(), options.executor());
+    }
+
+    /**
+     * Aggregates what's left to read from a channel. A {@link java.nio.channels.FileChannel} is mapped from its
+     * position to its end and parsed in parallel; any other channel is read until it ends, on the calling thread.
+     */
+    public static Result aggregate(ReadableByteChannel channel, Options options) throws IOException {
+        return CalculateAverage_sachinhejip.aggregate(channel, options.threads(), options.executor());
+    }
+}
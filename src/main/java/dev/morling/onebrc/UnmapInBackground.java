@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs another entry point in a worker process and exits as soon as the worker has written its result, leaving
+ * the worker to unmap the file and exit on its own:
+ *
+ * <pre>
+ * java --enable-preview -cp ... dev.morling.onebrc.UnmapInBackground dev.morling.onebrc.CalculateAverage_thomaswue
+ * </pre>
+ *
+ * Tearing down a mapping of the whole file, and the page tables behind it, happens after the result is printed but
+ * before the process exits, so it counts towards the time of every engine that maps the file. The worker is started
+ * with the same JVM options, its stdout is piped back and copied to this process's stdout, and its stdin and stderr
+ * are inherited. Once the entry point returns, the worker ends its output with a {@code NUL} byte and closes
+ * stdout and stderr, so neither this process nor a pipeline reading its output waits for the worker to exit. If the
+ * worker exits without the {@code NUL} byte, this process waits for it and exits with its status.
+ */
+public final class UnmapInBackground {
+
+    static final String WORKER = "--worker";
+    // ends the output of a worker whose entry point returned, results being text
+    static final int DONE = 0;
+
+    private UnmapInBackground() {
+    }
+
+    private static volatile boolean worker;
+
+    /**
+     * Whether this process is a worker, whose entry point can then leave its mappings to be torn down at exit.
+     * Closing them itself would unmap the file before the result is passed on, with nothing left to do in the
+     * background.
+     */
+    static boolean isWorker() {
+        return worker;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length > 1 && args[0].equals(WORKER)) {
+            work(args[1], Arrays.copyOfRange(args, 2, args.length));
+        }
+        else if (args.length > 0 && !args[0].equals(WORKER)) {
+            System.exit(spawnWorker(args));
+        }
+        else {
+            throw new IllegalArgumentException("Expected the main class to run and its arguments");
+        }
+    }
+
+    /**
+     * Starts the worker and copies its output, holding back the last byte read until it is known not to be the
+     * {@link #DONE} byte. Returns the exit status to exit with.
+     */
+    private static int spawnWorker(String[] args) throws IOException, InterruptedException {
+        Process worker = new ProcessBuilder(workerCommand(args))
+                .inheritIO()
+                .redirectOutput(ProcessBuilder.Redirect.PIPE)
+                .start();
+        OutputStream out = ResultWriter.standardOut();
+        byte[] buf = new byte[64 * 1024];
+        int last = -1;
+        try (InputStream in = worker.getInputStream()) {
+            for (int n; (n = in.read(buf)) >= 0;) {
+                if (n == 0) {
+                    continue;
+                }
+                if (last >= 0) {
+                    out.write(last);
+                }
+                out.write(buf, 0, n - 1);
+                last = buf[n - 1] & 0xFF;
+            }
+        }
+        if (last == DONE) {
+            out.flush();
+            return 0;
+        }
+        if (last >= 0) {
+            out.write(last);
+        }
+        out.flush();
+        int status = worker.waitFor();
+        return status != 0 ? status : 1;
+    }
+
+    /**
+     * Returns the command this process was started with, {@link #WORKER} inserted after this class's name.
+     */
+    private static List<String> workerCommand(String[] args) {
+        ProcessHandle.Info info = ProcessHandle.current().info();
+        String[] arguments = info.arguments().orElseThrow(() -> new IllegalStateException("The JVM's command line is not available"));
+        List<String> command = new ArrayList<>(arguments.length + 2);
+        command.add(info.command().orElse(Path.of(System.getProperty("java.home"), "bin", "java").toString()));
+        // everything before the main class are JVM options, and everything after it the arguments passed here
+        int main = arguments.length - args.length - 1;
+        if (main < 0 || !arguments[main].equals(UnmapInBackground.class.getName())) {
+            throw new IllegalStateException("Expected to be started as the main class, not " + String.join(" ", arguments));
+        }
+        command.addAll(Arrays.asList(arguments).subList(0, main + 1));
+        command.add(WORKER);
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    private static void work(String mainClass, String[] args) throws Throwable {
+        MethodHandle main = MethodHandles.publicLookup().findStatic(Class.forName(mainClass), "main",
+                MethodType.methodType(void.class, String[].class));
+        worker = true;
+        main.invokeExact(args);
+        System.out.flush();
+        try (OutputStream out = new FileOutputStream(FileDescriptor.out)) {
+            out.write(DONE);
+        }
+        System.err.close();
+    }
+}
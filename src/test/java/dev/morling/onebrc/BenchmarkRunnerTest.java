@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * An in-process engine that times out must neither be interrupted nor keep the runner from measuring and reporting
+ * the targets after it, and outputs whose means differ by a rounding tie still match.
+ */
+class BenchmarkRunnerTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Returns a single station, after waiting for {@code release} if there is one. Being interrupted doesn't stop
+     * the wait, like an engine whose own threads keep reading its input.
+     */
+    static class StubEngine implements AggregationEngine {
+        private final String name;
+        private final CountDownLatch release;
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        StubEngine(String name, CountDownLatch release) {
+            this.name = name;
+            this.release = release;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public StationAggregator.Result run(Path input) {
+            while (release != null) {
+                try {
+                    release.await();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+            return new StationAggregator.Result(List.of(StationAggregator.Station.ofTenths("Hamburg", 120, 120, 1, 120)));
+        }
+    }
+
+    @Test
+    void reportsTheTargetsAfterOneThatTimedOut() throws IOException, InterruptedException {
+        Path input = Files.writeString(dir.resolve("measurements.txt"), "Hamburg;12.0\n");
+        BenchmarkRunner.Options options = new BenchmarkRunner.Options(input, 0, 2, Duration.ofMillis(200), "", null, null, false);
+        CountDownLatch release = new CountDownLatch(1);
+        StubEngine stuck = new StubEngine("stuck", release);
+        try {
+            List<BenchmarkRunner.Outcome> outcomes = BenchmarkRunner.measure(
+                    List.of(new BenchmarkRunner.InProcess(stuck), new BenchmarkRunner.InProcess(new StubEngine("fast", null))), options);
+
+            assertThat(outcomes).extracting(BenchmarkRunner.Outcome::target).containsExactly("engine:stuck", "engine:fast");
+            assertThat(outcomes.get(0).status()).startsWith("timed out");
+            assertThat(outcomes.get(0).summary()).isNull();
+            assertThat(outcomes.get(1).status()).isEqualTo("ok");
+            assertThat(outcomes.get(1).summary().millis()).hasSize(2);
+            assertThat(stuck.interrupted).isFalse();
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void allowsATenthOnTheMeans() {
+        String expected = "{Arpfu=-21.5/-3.0/20.4, Hamburg=12.0/12.0/12.0}";
+        assertThat(BenchmarkRunner.sameStations("{Arpfu=-21.5/-3.1/20.4, Hamburg=12.0/12.0/12.0}", expected)).isTrue();
+        assertThat(BenchmarkRunner.sameStations("{Arpfu=-21.5/-3.2/20.4, Hamburg=12.0/12.0/12.0}", expected)).isFalse();
+        assertThat(BenchmarkRunner.sameStations("{Arpfu=-21.4/-3.0/20.4, Hamburg=12.0/12.0/12.0}", expected)).isFalse();
+        assertThat(BenchmarkRunner.sameStations("{Arpfu=-21.5/-3.0/20.4}", expected)).isFalse();
+        assertThat(BenchmarkRunner.sameStations("Exception in thread \"main\"", expected)).isFalse();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * What {@code test_all.sh} checks for the forks, in-process for every registered {@link AggregationEngine}: each
+ * engine aggregates each {@code src/test/resources/samples/*.txt}, and its stations must match the {@code .out}
+ * file next to it. The samples in {@code engine-samples} are only for the engines, as many forks can't parse them.
+ * Engines run concurrently (see {@code junit-platform.properties}), but the runs of one engine don't overlap.
+ */
+class EngineConformanceTest {
+
+    static final Path RESOURCES = Path.of("src/test/resources");
+    static final List<Path> SAMPLES = List.of(RESOURCES.resolve("samples"), RESOURCES.resolve("engine-samples"));
+
+    // @ResourceLock only takes constant keys, so runs of the same engine are kept apart here
+    static final ConcurrentMap<String, Lock> ENGINES = new ConcurrentHashMap<>();
+
+    /**
+     * One line of the output, with temperatures in tenths of a degree so that {@code -0.0} and {@code 0.0} are
+     * alike.
+     */
+    record Row(long min, long mean, long max) {
+
+        static Row of(double min, double mean, double max) {
+            return new Row(Math.round(min * 10), Math.round(mean * 10), Math.round(max * 10));
+        }
+    }
+
+    static Stream<Arguments> enginesAndSamples() throws IOException {
+        List<Path> samples = new ArrayList<>();
+        for (Path dir : SAMPLES) {
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(file -> file.getFileName().toString().endsWith(".txt")).sorted().forEach(samples::add);
+            }
+        }
+        assertThat(samples).isNotEmpty();
+        return AggregationEngines.all().stream()
+                .flatMap(engine -> samples.stream().map(sample -> Arguments.of(engine.name(), RESOURCES.relativize(sample).toString())));
+    }
+
+    @ParameterizedTest(name = "{0} {1}")
+    @MethodSource("enginesAndSamples")
+    void matchesExpectedOutput(String engine, String sample) throws IOException {
+        Path input = RESOURCES.resolve(sample);
+        Path expected = RESOURCES.resolve(sample.substring(0, sample.length() - ".txt".length()) + ".out");
+
+        StationAggregator.Result result;
+        Lock lock = ENGINES.computeIfAbsent(engine, name -> new ReentrantLock());
+        lock.lock();
+        try {
+            result = AggregationEngines.named(engine).run(input);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        Map<String, Row> actual = new TreeMap<>();
+        for (StationAggregator.Station station : result) {
+            actual.put(station.name(), Row.of(station.min(), station.mean(), station.max()));
+        }
+        assertThat(actual).isEqualTo(parse(Files.readString(expected, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Parses {@code {<station>=<min>/<mean>/<max>, ...}}. A station ends at its last {@code =}, and an entry at a
+     * {@code ", "} that follows a digit, like {@code tocsv.sh} splits them.
+     */
+    static Map<String, Row> parse(String output) {
+        String body = output.strip();
+        assertThat(body).startsWith("{").endsWith("}");
+        body = body.substring(1, body.length() - 1);
+        Map<String, Row> rows = new TreeMap<>();
+        if (body.isEmpty()) {
+            return rows;
+        }
+        for (String entry : body.split("(?<=[0-9]), ")) {
+            int equals = entry.lastIndexOf('=');
+            String[] values = entry.substring(equals + 1).split("/");
+            assertThat(values).as(entry).hasSize(3);
+            rows.put(entry.substring(0, equals),
+                    Row.of(Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2])));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2023 The original authors
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package dev.morling.onebrc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Every input {@link StationAggregator} takes must parse a last line without a '\n' like any other line.
+ */
+class StationAggregatorTest {
+
+    static final byte[] UNTERMINATED = "A;1.0\nB;-2.5\nA;3.0".getBytes(StandardCharsets.UTF_8);
+    static final String EXPECTED = "{A=1.0/2.0/3.0, B=-2.5/-2.5/-2.5}";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void path() throws IOException {
+        Path file = Files.write(dir.resolve("measurements.txt"), UNTERMINATED);
+        assertThat(StationAggregator.aggregate(file, new StationAggregator.Options(2))).hasToString(EXPECTED);
+        assertThat(StationAggregator.aggregate(file, new StationAggregator.Options(1))).hasToString(EXPECTED);
+    }
+
+    @Test
+    void heapSegment() throws IOException {
+        MemorySegment segment = MemorySegment.ofArray(UNTERMINATED);
+        assertThat(StationAggregator.aggregate(segment, new StationAggregator.Options(2))).hasToString(EXPECTED);
+    }
+
+    @Test
+    void nativeSegment() throws IOException {
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment segment = arena.allocate(UNTERMINATED.length).copyFrom(MemorySegment.ofArray(UNTERMINATED));
+            assertThat(StationAggregator.aggregate(segment, new StationAggregator.Options(2))).hasToString(EXPECTED);
+        }
+    }
+
+    @Test
+    void fileChannel() throws IOException {
+        Path file = Files.write(dir.resolve("measurements.txt"), UNTERMINATED);
+        try (FileChannel channel = FileChannel.open(file)) {
+            assertThat(StationAggregator.aggregate(channel, new StationAggregator.Options(2))).hasToString(EXPECTED);
+        }
+    }
+
+    @Test
+    void channel() throws IOException {
+        var channel = Channels.newChannel(new ByteArrayInputStream(UNTERMINATED));
+        assertThat(StationAggregator.aggregate(channel, new StationAggregator.Options(2))).hasToString(EXPECTED);
+    }
+}
@@ -0,0 +1,49 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+ROWS=${1:-10000000}
+HEAP=${2:-32m}
+
+if [ "$#" -gt 2 ] || [ "$ROWS" = "-h" ]; then
+  echo "Usage: ./test_allocation_sachinhejip.sh [number of rows] [heap size]"
+  echo
+  echo "Generates a measurements file with <number of rows> (default 10000000) and runs"
+  echo "CalculateAverage_sachinhejip with every parser and station table under Epsilon GC, which never"
+  echo "reclaims memory, with a heap of <heap size> (default 32m). Any allocation per line"
+  echo "exhausts the heap long before the end of the file and fails the run."
+  exit 1
+fi
+
+JAR="$(pwd)/target/average-1.0.0-SNAPSHOT.jar"
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+(cd "$WORK_DIR" && java --class-path "$JAR" dev.morling.onebrc.CreateMeasurementsFast "$ROWS" > /dev/null)
+
+JAVA_OPTS="--enable-preview -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xms$HEAP -Xmx$HEAP -XX:+ExitOnOutOfMemoryError -Xlog:gc:stderr"
+
+for parser in swar bytes; do
+  for table in off-heap trie; do
+    echo "Checking allocation of --parser=$parser --table=$table over $ROWS rows with a $HEAP heap"
+    if ! (cd "$WORK_DIR" && java $JAVA_OPTS --class-path "$JAR" dev.morling.onebrc.CalculateAverage_sachinhejip --parser=$parser --table=$table > /dev/null); then
+      echo "FAIL --parser=$parser --table=$table allocates per line"
+      exit 1
+    fi
+  done
+done
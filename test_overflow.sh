@@ -0,0 +1,53 @@
+#!/bin/bash
+#
+#  Copyright 2023 The original authors
+#
+#  Licensed under the Apache License, Version 2.0 (the "License");
+#  you may not use this file except in compliance with the License.
+#  You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+#  Unless required by applicable law or agreed to in writing, software
+#  distributed under the License is distributed on an "AS IS" BASIS,
+#  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#  See the License for the specific language governing permissions and
+#  limitations under the License.
+#
+
+set -euo pipefail
+
+ROWS=${1:-2200000000}
+
+if [ "$#" -gt 1 ] || [ "$ROWS" = "-h" ]; then
+  echo "Usage: ./test_overflow.sh [number of rows]"
+  echo
+  echo "Generates a measurements file where one station has <number of rows> (default 2200000000,"
+  echo "more than 2^31) alternating between 99.9 and 99.7, next to a station with a single row, and"
+  echo "checks the output of CalculateAverage_sachinhejip (with both station tables) and"
+  echo "CalculateAverage_thomaswue. A count or sum that overflows 32 bits throws the mean off."
+  echo "The default needs about 15 GB in the temporary directory."
+  exit 1
+fi
+
+JAR="$(pwd)/target/average-1.0.0-SNAPSHOT.jar"
+WORK_DIR=$(mktemp -d)
+trap 'rm -rf "$WORK_DIR"' EXIT
+
+echo "Generating $ROWS rows of one station"
+# yes only stops once head closes the pipe
+(set +o pipefail && echo "Cold;-12.3" && yes $'Hot;99.9\nHot;99.7' | head -n "$ROWS") > "$WORK_DIR/measurements.txt"
+EXPECTED="{Cold=-12.3/-12.3/-12.3, Hot=99.7/99.8/99.9}"
+
+check() {
+  echo "Checking $*"
+  ACTUAL=$(cd "$WORK_DIR" && java --enable-preview --class-path "$JAR" "$@")
+  if [ "$ACTUAL" != "$EXPECTED" ]; then
+    echo "FAIL $*: expected $EXPECTED, was $ACTUAL"
+    exit 1
+  fi
+}
+
+check dev.morling.onebrc.CalculateAverage_sachinhejip --table=off-heap
+check dev.morling.onebrc.CalculateAverage_sachinhejip --table=trie
+check dev.morling.onebrc.CalculateAverage_thomaswue